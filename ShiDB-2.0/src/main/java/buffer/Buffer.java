@@ -6,6 +6,11 @@ import file.Page;
 import log.LogMgr;
 import lombok.Getter;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
 public class Buffer {
     private FileMgr fileMgr;
     private LogMgr logMgr;
@@ -19,6 +24,10 @@ public class Buffer {
     @Getter
     private int pins = 0;
 
+    // Position of this buffer within its shard of the BufferMgr's pool. Buffers created outside of a pool get -1
+    @Getter
+    private final int frameId;
+
     @Getter
     private long lastTimePinned = 0L;
 
@@ -29,17 +38,113 @@ public class Buffer {
     private long modifyingTxNum = -1L;
     private long lsn = -1L;
 
+    // Short term latch on the page contents, not to be confused with the transaction locks. Readers share it, writers
+    // get it to themselves, and readers can skip it entirely with an optimistic read that gets validated afterward
+    private final StampedLock latch = new StampedLock();
+
+    // Can't autogenerate lombok getter function because it doesn't call AtomicLong.get()
+    private final AtomicLong optimisticReadRetryCounter = new AtomicLong(0);
+
+    // The dirty page table of the shard this buffer belongs to. Buffers created outside of a pool don't have one
+    private final DirtyPageTable dirtyPageTable;
+
     public Buffer(FileMgr fileMgr, LogMgr logMgr) {
+        this(fileMgr, logMgr, -1);
+    }
+
+    public Buffer(FileMgr fileMgr, LogMgr logMgr, int frameId) {
+        this(fileMgr, logMgr, frameId, null);
+    }
+
+    Buffer(FileMgr fileMgr, LogMgr logMgr, int frameId, DirtyPageTable dirtyPageTable) {
+        this(fileMgr, logMgr, frameId, dirtyPageTable, new Page(fileMgr.getBlocksize()));
+    }
+
+    // For buffers of the pool, whose pages are slices of the pool's PageArena
+    Buffer(FileMgr fileMgr, LogMgr logMgr, int frameId, DirtyPageTable dirtyPageTable, Page contents) {
         this.fileMgr = fileMgr;
         this.logMgr = logMgr;
+        this.frameId = frameId;
+        this.dirtyPageTable = dirtyPageTable;
+        this.contents = contents;
+    }
+
+    /*
+     * Latches protect the bytes of the page while somebody is in the middle of reading or changing them. They are only
+     * held for as long as it takes to read or write a few values, and only while the buffer is pinned. Never pin
+     * another block or wait on anything else while holding one, the buffer pool takes them (to write pages out) while
+     * holding its own locks.
+     *
+     * All of these hand out a stamp that has to be given back to unlatch().
+     */
+
+    public long latchShared() {
+        return latch.readLock();
+    }
+
+    public long latchExclusive() {
+        return latch.writeLock();
+    }
 
-        contents = new Page(fileMgr.getBlocksize());
+    public void unlatch(long stamp) {
+        latch.unlock(stamp);
+    }
+
+    /**
+     * Reads from the page without taking the latch. If nobody changed the page while the reader ran, its result is
+     * returned. Otherwise the reader runs again with the shared latch. A reader that races a writer can see half
+     * written values and even throw, so readers must not do anything with what they read besides returning it
+     * @param reader Reads values out of the page. Can run twice
+     */
+    public <T> T readOptimistically(Function<Page, T> reader) {
+        long stamp = latch.tryOptimisticRead();
+
+        // A stamp of 0 means somebody has the exclusive latch right now, so there's no point trying
+        if (stamp != 0) {
+            try {
+                T value = reader.apply(contents);
+                if (latch.validate(stamp))
+                    return value;
+            }
+            catch (RuntimeException e) {
+                // Only a real error if nobody was changing the page under us
+                if (latch.validate(stamp))
+                    throw e;
+            }
+        }
+
+        optimisticReadRetryCounter.incrementAndGet();
+        stamp = latch.readLock();
+        try {
+            return reader.apply(contents);
+        }
+        finally {
+            latch.unlockRead(stamp);
+        }
+    }
+
+    // Number of optimistic reads that had to be redone with the shared latch
+    public long getOptimisticReadRetryCounter() {
+        return optimisticReadRetryCounter.get();
     }
 
     public void setModified(int modifyingTxNum, long lsn) {
+        long oldTxNum = this.modifyingTxNum;
         this.modifyingTxNum = modifyingTxNum;
         if (lsn >= 0)
             this.lsn = lsn;
+
+        if (dirtyPageTable != null)
+            dirtyPageTable.bufferModified(this, oldTxNum, modifyingTxNum);
+    }
+
+    public boolean hasBlock() {
+        return block != null;
+    }
+
+    // Dirty buffers have to be written out before their frame can be given to another block
+    public boolean isModified() {
+        return modifyingTxNum >= 0;
     }
 
     public boolean isPinned() {
@@ -48,16 +153,57 @@ public class Buffer {
 
     protected void assignToBlock(BlockId block) {
         flush();
+
+        // Nobody has it pinned, but an optimistic reader holding on to an old stamp has to see that the page changed
+        long stamp = latch.writeLock();
+        try {
+            // If the read fails, the buffer is left holding no block instead of a block it doesn't have the contents of
+            this.block = null;
+            fileMgr.readFromDiskToPage(block, contents);
+            this.block = block;
+        }
+        finally {
+            latch.unlockWrite(stamp);
+        }
+    }
+
+    // Same as above, but for a block that was already read in along with others (see the BufferMgr warm up)
+    protected void assignToBlock(BlockId block, ByteBuffer blockContents) {
+        flush();
         this.block = block;
-        fileMgr.readFromDiskToPage(block, contents);
+
+        long stamp = latch.writeLock();
+        try {
+            contents.copyFrom(blockContents);
+        }
+        finally {
+            latch.unlockWrite(stamp);
+        }
+    }
+
+    // For buffers taken out of the pool when it shrinks. Anything modified gets written out first
+    protected void unassign() {
+        flush();
+        this.block = null;
         pins = 0;
     }
 
     // Not the same as the logMgr flush(), but very similar. Writes the contents of the page to the disk
     protected void flush() {
-        if (modifyingTxNum >= 0) {
+        if (isModified()) {
             logMgr.flush(lsn);
-            fileMgr.writePageToDisk(block, contents);
+
+            // Writing the page out is a read, it just can't happen in the middle of somebody's change
+            long stamp = latch.readLock();
+            try {
+                fileMgr.writePageToDisk(block, contents);
+            }
+            finally {
+                latch.unlockRead(stamp);
+            }
+
+            if (dirtyPageTable != null)
+                dirtyPageTable.bufferCleaned(this, modifyingTxNum);
             modifyingTxNum = -1;
         }
     }
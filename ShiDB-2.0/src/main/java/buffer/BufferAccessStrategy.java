@@ -0,0 +1,96 @@
+package buffer;
+
+import file.BlockId;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+
+/**
+ * Lets a big scan or bulk load pin blocks without pushing everybody else's blocks out of the pool. Blocks that are
+ * already cached get pinned like normal, but a block that has to be read in gets put in one of the strategy's own
+ * buffers. The strategy keeps a small ring of the buffers it read blocks into, and once the ring is full, the oldest
+ * buffer in it gets reused for the next block instead of asking the replacement policy for a victim. So a scan only
+ * ever takes over ring size buffers of the pool, no matter how many blocks it reads.
+ *
+ * The ring is split by shard, since a buffer can only be reused for blocks of its own shard. A strategy is meant to
+ * be used by one scan (one thread) at a time. Get one from {@link BufferMgr#createAccessStrategy(Type)}.
+ */
+public class BufferAccessStrategy {
+
+    public enum Type {
+        BULK_READ, // Sequential scans of big tables
+        BULK_WRITE // Bulk inserts and temp tables for sorting. Every buffer in the ring is usually dirty
+    }
+
+    @Getter
+    private final Type type;
+
+    private final Ring[] ringsByShard;
+
+    // A buffer in the ring, and the block we put in it. If the buffer holds anything else now, somebody else took it
+    // over through the normal replacement policy, and it isn't ours to reuse anymore
+    private record RingEntry(Buffer buffer, BlockId block) {}
+
+    static class Ring {
+        // For pins without a strategy. Never has anything to reuse and never holds on to anything
+        static final Ring NO_RING = new Ring(0);
+
+        private final ArrayDeque<RingEntry> entries;
+        private final int capacity;
+
+        private Ring(int capacity) {
+            this.capacity = capacity;
+            this.entries = new ArrayDeque<>(capacity);
+        }
+
+        // The buffer to reuse for the next block, or nothing if the ring isn't full yet or the oldest one is taken
+        Attempt<Buffer> nextToReuse() {
+            if (capacity == 0 || entries.size() < capacity)
+                return Attempt.failed();
+
+            RingEntry oldest = entries.poll();
+            Buffer buffer = oldest.buffer();
+            if (buffer.isPinned() || !oldest.block().equals(buffer.getBlock()))
+                return Attempt.failed();
+
+            return Attempt.succeeded(buffer);
+        }
+
+        void add(Buffer buffer) {
+            if (capacity == 0)
+                return;
+
+            if (entries.size() == capacity)
+                entries.poll();
+
+            entries.add(new RingEntry(buffer, buffer.getBlock()));
+        }
+
+        int size() {
+            return entries.size();
+        }
+    }
+
+    BufferAccessStrategy(Type type, int ringSize, int numShards) {
+        this.type = type;
+
+        // Every shard gets at least one buffer, otherwise the scan couldn't reuse anything in it
+        int ringSizePerShard = Math.max(ringSize / numShards, 1);
+        ringsByShard = new Ring[numShards];
+        for (int i = 0; i < numShards; i++)
+            ringsByShard[i] = new Ring(ringSizePerShard);
+    }
+
+    Ring ringFor(int shardIndex) {
+        return ringsByShard[shardIndex];
+    }
+
+    // How many buffers of the pool the strategy is holding on to right now
+    public int getNumRingBuffers() {
+        int numRingBuffers = 0;
+        for (Ring ring : ringsByShard)
+            numRingBuffers += ring.size();
+
+        return numRingBuffers;
+    }
+}
@@ -3,64 +3,329 @@ package buffer;
 import error.BufferAbortException;
 import file.BlockId;
 import file.FileMgr;
+import file.PageArena;
 import log.LogMgr;
+import lombok.Getter;
 import server.ConfigFetcher;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class BufferMgr {
+public class BufferMgr implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(BufferMgr.class.getName());
 
+    // The names here are what goes in the "buffer_mgr_replacement_policy" config entry
     enum bufferSelectionStrategy {
         NAIVE, // Choose the first unpinned buffer it finds
-        FIFO, // Choose the unpinned buffer whose contents were unpinned least recently (pinned -> lowest sys time)
+        FIFO, // Choose the unpinned buffer whose contents were read in least recently (pinned -> lowest sys time)
         LRU, // Choose the unpinned buffer whose contents were unpinned least recently (unpinned -> lowest syst time)
-        RING_BUFFER // Scan buffers sequentially  from last replaced buffer; choose first unpinned buffer
+        RING_BUFFER, // Scan buffers sequentially  from last replaced buffer; choose first unpinned buffer
+        CLOCK, // Same as RING_BUFFER, but buffers that were pinned since the last sweep get a second chance
+        LRU_K, // Choose the unpinned buffer whose K-th most recent pin is the oldest
+        TWO_QUEUE // Blocks only read once get replaced before blocks that have been read multiple times
     }
 
-    // TODO: Create an pinned and unpinned buffer pool. Unpinned needs to be a blocking priority queue to support all
-    //  of the different buffer selection strategies
-    private ArrayList<Buffer> bufferPool;
+    // The pool is split into shards, each with its own lock, so pins of unrelated blocks don't all wait on one
+    // monitor. A block always lives in the same shard, picked by hashing its BlockId
+    private BufferPoolShard[] shards;
+
+    // Can change at runtime, see resize()
+    @Getter
+    private volatile int numBuffers;
+
+    // The database can have several pools, see BufferPools. The name keeps their threads and files apart
+    @Getter
+    private final String poolName;
+
+    // Pool wide statistics the shards keep up to date
+    private final BufferPoolCounters counters;
+
+    // How long pins had to wait in line for a buffer, across all the shards
+    @Getter
+    private final WaitTimeHistogram pinWaitTimeHistogram;
 
-    private AtomicInteger numAvailableBuffers;
     private static final long MAX_TIME_WAIT_FOR_PIN_MILLISECONDS = ConfigFetcher.getBufferMgrMaxWaitTime();
-    private static final long WAIT_TIME_STEP_MILLISECONDS = ConfigFetcher.getBufferMgrPollStepTime();
+
+    private FileMgr fileMgr;
+
+    // Prefetch reads are blocking I/O, which is exactly what virtual threads are good at
+    private final ExecutorService prefetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong prefetchCounter;
+
+    // Sequential pins of a file kick off read ahead, so scans get it without asking for it. The read ahead window is
+    // capped at a quarter of the pool so a scan can't push everything else out
+    private volatile int readAheadBlocks;
+    private final int sequentialPinsBeforeReadAhead;
+    private final ConcurrentHashMap<String, SequentialAccess> sequentialAccesses = new ConcurrentHashMap<>();
+
+    // The background page writer cleans the buffers next in line for replacement, so pins that miss usually find a
+    // clean buffer to replace and don't have to write somebody else's changes out before reading their own block
+    private Thread pageWriter;
+    private final long pageWriterIntervalMillis;
+    private final int pageWriterMaxPagesPerRound;
+    private final int pageWriterLowWaterMarkPerShard;
+    private volatile boolean isClosed = false;
+    private boolean isStarted = false;
+    private final AtomicLong backgroundWriteCounter;
+
+    // The blocks in the pool get saved at checkpoints and shutdown, and read back in on startup, so a restart doesn't
+    // have to refill the pool one cache miss at a time
+    private final WarmRestartFile warmRestartFile;
+    private final boolean isWarmRestartEnabled;
+    private final int warmUpReadBlocks;
+
+    // Where the last pin of a file was, how many pins in a row were the block after the one before, and how far
+    // ahead of that has already been prefetched
+    private record SequentialAccess(int lastBlockNum, int numSequentialPins, int prefetchedUpTo) {}
 
     public BufferMgr(FileMgr fileMgr, LogMgr logMgr, int numBuffers) {
-        bufferPool = new ArrayList<>();
-        numAvailableBuffers = new AtomicInteger(numBuffers);
+        this(fileMgr, logMgr, numBuffers,
+                bufferSelectionStrategy.valueOf(ConfigFetcher.getBufferMgrReplacementPolicy()));
+    }
 
-        for (int i = 0; i < numBuffers; i++)
-            bufferPool.add(new Buffer(fileMgr, logMgr));
+    public BufferMgr(FileMgr fileMgr, LogMgr logMgr, int numBuffers, bufferSelectionStrategy strategy) {
+        this(fileMgr, logMgr, numBuffers, strategy, ConfigFetcher.getBufferMgrNumShards());
     }
 
-    public int getNumAvailableBuffers() {
-        return numAvailableBuffers.get();
+    public BufferMgr(FileMgr fileMgr, LogMgr logMgr, int numBuffers, bufferSelectionStrategy strategy,
+                     int numShards) {
+        this(BufferPools.DEFAULT_POOL, fileMgr, logMgr, numBuffers, strategy, numShards);
     }
 
-    public synchronized void flushAllBuffers(long modifyingTxNum) {
-        bufferPool.stream()
-                .filter(buffer -> buffer.getModifyingTxNum() != modifyingTxNum)
-                .forEach(buffer -> buffer.flush());
+    public BufferMgr(String poolName, FileMgr fileMgr, LogMgr logMgr, int numBuffers,
+                     bufferSelectionStrategy strategy, int numShards) {
+        if (numShards < 1)
+            throw new IllegalArgumentException("The buffer pool needs at least 1 shard, got: " + numShards);
+
+        // Every shard needs at least one buffer, otherwise the blocks hashing to it could never be pinned
+        numShards = Math.min(numShards, Math.max(numBuffers, 1));
+
+        this.poolName = poolName;
+        this.fileMgr = fileMgr;
+        this.numBuffers = numBuffers;
+        this.readAheadBlocks = Math.min(ConfigFetcher.getBufferMgrReadAheadBlocks(), numBuffers / 4);
+        this.sequentialPinsBeforeReadAhead = ConfigFetcher.getBufferMgrSequentialPinsBeforeReadAhead();
+
+        this.pageWriterIntervalMillis = ConfigFetcher.getBufferMgrPageWriterIntervalMillis();
+        this.pageWriterMaxPagesPerRound = ConfigFetcher.getBufferMgrPageWriterMaxPagesPerRound();
+
+        counters = new BufferPoolCounters(numBuffers);
+        prefetchCounter = new AtomicLong(0);
+        backgroundWriteCounter = new AtomicLong(0);
+        pinWaitTimeHistogram = new WaitTimeHistogram();
+
+        // All the pages of the pool in one off heap allocation, each shard gets the next stretch of it
+        PageArena pageArena = new PageArena(numBuffers, fileMgr.getBlocksize());
+        shards = new BufferPoolShard[numShards];
+        int firstPageIndex = 0;
+        for (int i = 0; i < numShards; i++) {
+            // Spread the remainder over the first shards so sizes differ by at most 1
+            int shardSize = numBuffers / numShards + (i < numBuffers % numShards ? 1 : 0);
+            shards[i] = new BufferPoolShard(counters, fileMgr, logMgr, shardSize, strategy, pinWaitTimeHistogram,
+                    ConfigFetcher.getBufferMgrCleanVictimLookahead(), pageArena, firstPageIndex);
+            firstPageIndex += shardSize;
+        }
+
+        this.warmRestartFile = new WarmRestartFile(
+                fileMgr.getDbDirectory().resolve("shidb-buffer-pool-" + poolName + ".warm"));
+        this.isWarmRestartEnabled = ConfigFetcher.getBufferMgrWarmRestart();
+        this.warmUpReadBlocks = Math.max(ConfigFetcher.getBufferMgrWarmUpReadBlocks(), 1);
+
+        // Round up, so every shard keeps at least one clean buffer in line
+        int lowWaterMark = ConfigFetcher.getBufferMgrPageWriterLowWaterMark();
+        this.pageWriterLowWaterMarkPerShard = (lowWaterMark + numShards - 1) / numShards;
     }
 
-    public synchronized void unpinBuffer(Buffer buffer) {
-        buffer.unpin();
-        if (!buffer.isPinned()) {
-            numAvailableBuffers.incrementAndGet();
-            notifyAll();
+    /**
+     * Starts the background work of the pool: the page writer, and the warm up if there are blocks saved from before a
+     * restart. Neither starts in the constructor, so no other thread can see the BufferMgr before it's done being
+     * built. BufferPools starts its pools on its own. Calling this more than once, or after close(), does nothing
+     */
+    public synchronized void start() {
+        if (isStarted || isClosed)
+            return;
+
+        isStarted = true;
+
+        if (isWarmRestartEnabled && warmRestartFile.exists()) {
+            // A warm up that fails only means a cold start, same as if there had been nothing saved
+            warmUp().exceptionally(e -> {
+                LOGGER.log(System.Logger.Level.WARNING, "Couldn't warm up the buffer pool, starting cold", e);
+                return 0;
+            });
+        }
+
+        if (pageWriterIntervalMillis > 0) {
+            pageWriter = new Thread(this::runPageWriter, "shidb-page-writer-" + poolName);
+            pageWriter.setDaemon(true);
+            pageWriter.start();
         }
     }
 
-    public synchronized Buffer pinBuffer(BlockId block) {
-        try {
-            long startTime = System.currentTimeMillis();
-            Attempt<Buffer> attemptToPin = tryToPin(block);
+    /**
+     * Grows or shrinks the pool while it's being used. The buffers get spread over the shards the same way as when the
+     * pool was created.
+     *
+     * Growing allocates one new arena for all the added pages. Shrinking takes the newest buffers of each shard out:
+     * unpinned ones right away (written out first if they're dirty), and pinned ones once they're unpinned, so no pin
+     * has to wait for it. The memory of an arena is given back once every buffer using it is gone, so shrinking back
+     * down after growing gives back what the grow took
+     * @param newNumBuffers The new size of the pool. Every shard needs at least 1 buffer
+     */
+    public synchronized void resize(int newNumBuffers) {
+        if (newNumBuffers < shards.length)
+            throw new IllegalArgumentException("The pool has " + shards.length + " shards, and each one needs at least "
+                    + "1 buffer. Can't resize to: " + newNumBuffers);
 
-            while (attemptToPin.hasFailed() && !hasWaitedTooLong(startTime)) {
-                wait(WAIT_TIME_STEP_MILLISECONDS);
-                attemptToPin = tryToPin(block);
-            }
+        int[] shardSizes = new int[shards.length];
+        int numPagesNeeded = 0;
+        for (int i = 0; i < shards.length; i++) {
+            shardSizes[i] = newNumBuffers / shards.length + (i < newNumBuffers % shards.length ? 1 : 0);
+            numPagesNeeded += Math.max(shardSizes[i] - shards[i].size(), 0);
+        }
+
+        PageArena pageArena = new PageArena(numPagesNeeded, fileMgr.getBlocksize());
+        int firstPageIndex = 0;
+        for (int i = 0; i < shards.length; i++) {
+            int currentSize = shards[i].size();
+            if (shardSizes[i] > currentSize)
+                firstPageIndex += shards[i].grow(shardSizes[i] - currentSize, pageArena, firstPageIndex);
+            else if (shardSizes[i] < currentSize)
+                shards[i].shrink(currentSize - shardSizes[i]);
+        }
+
+        numBuffers = newNumBuffers;
+        readAheadBlocks = Math.min(ConfigFetcher.getBufferMgrReadAheadBlocks(), newNumBuffers / 4);
+    }
+
+    public int getNumAvailableBuffers() {
+        return counters.getNumAvailableBuffers();
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    public long getCacheHitCounter() {
+        return counters.getCacheHitCounter();
+    }
+
+    public long getCacheMissCounter() {
+        return counters.getCacheMissCounter();
+    }
+
+    // Number of dirty buffers the background page writer wrote out
+    public long getBackgroundWriteCounter() {
+        return backgroundWriteCounter.get();
+    }
+
+    // Number of times a pin had to write out a dirty buffer before it could replace it
+    public long getDirtyReplacementCounter() {
+        return counters.getDirtyReplacementCounter();
+    }
+
+    // Number of blocks read in by prefetching or warming up after a restart (not counted as cache misses)
+    public long getPrefetchCounter() {
+        return prefetchCounter.get();
+    }
+
+    // Same idea as the FileMgr statistics reset. Lets unit tests ignore whatever pins happened during setup
+    public void resetBufferMgrStatistics() {
+        counters.reset();
+        prefetchCounter.set(0);
+        backgroundWriteCounter.set(0);
+        pinWaitTimeHistogram.reset();
+    }
+
+    /**
+     * Writes out every buffer the transaction modified, for when it commits. Only the buffers the transaction actually
+     * modified get looked at, not the whole pool
+     * @param modifyingTxNum The transaction to flush the buffers of
+     * @return How many buffers got written
+     */
+    public int flushAllBuffers(long modifyingTxNum) {
+        int numFlushed = 0;
+        for (BufferPoolShard shard : shards)
+            numFlushed += shard.flushAllBuffers(modifyingTxNum);
+
+        return numFlushed;
+    }
+
+    /**
+     * Writes out every modified buffer in the pool, no matter which transaction modified it, and syncs the files they
+     * were written to. For checkpoints: data files are only synced at checkpoints (see FileDurability), so this also
+     * covers everything that commits wrote out since the last one
+     * @return How many buffers got written
+     */
+    public int flushAllModifiedBuffers() {
+        int numFlushed = 0;
+        for (BufferPoolShard shard : shards)
+            numFlushed += shard.flushAllModifiedBuffers();
+
+        fileMgr.checkpoint();
+
+        if (isWarmRestartEnabled)
+            saveResidentBlocks();
+
+        return numFlushed;
+    }
+
+    // Number of buffers that have been modified and not written out yet
+    public int getNumModifiedBuffers() {
+        int numModified = 0;
+        for (BufferPoolShard shard : shards)
+            numModified += shard.numModifiedBuffers();
+
+        return numModified;
+    }
+
+    public void unpinBuffer(Buffer buffer) {
+        shardFor(buffer.getBlock()).unpinBuffer(buffer);
+    }
+
+    public Buffer pinBuffer(BlockId block) {
+        Buffer buffer = pinBuffer(block, BufferAccessStrategy.Ring.NO_RING);
+        readAheadIfSequential(block);
+
+        return buffer;
+    }
+
+    /**
+     * Pins the block for a big scan or bulk load. If the block isn't cached, it goes in one of the strategy's own
+     * buffers instead of replacing somebody else's block, see {@link BufferAccessStrategy}. No read ahead is done for
+     * these pins, since prefetched blocks would go around the ring and into the rest of the pool
+     * @param block The block to pin
+     * @param strategy The strategy of the scan doing the pinning, from {@link #createAccessStrategy}
+     */
+    public Buffer pinBuffer(BlockId block, BufferAccessStrategy strategy) {
+        return pinBuffer(block, strategy.ringFor(shardIndexFor(block)));
+    }
+
+    /**
+     * Creates a strategy for a scan or bulk load to pin with, so it doesn't push the rest of the pool out. The size of
+     * its ring comes from the config, but is never more than a quarter of the pool
+     */
+    public BufferAccessStrategy createAccessStrategy(BufferAccessStrategy.Type type) {
+        int ringSize = switch (type) {
+            case BULK_READ -> ConfigFetcher.getBufferMgrBulkReadRingSize();
+            case BULK_WRITE -> ConfigFetcher.getBufferMgrBulkWriteRingSize();
+        };
+
+        return new BufferAccessStrategy(type, Math.max(Math.min(ringSize, numBuffers / 4), 1), shards.length);
+    }
+
+    private Buffer pinBuffer(BlockId block, BufferAccessStrategy.Ring ring) {
+        try {
+            Attempt<Buffer> attemptToPin = shardFor(block).pinBuffer(block, MAX_TIME_WAIT_FOR_PIN_MILLISECONDS, ring);
 
             if (attemptToPin.hasFailed())
                 throw new BufferAbortException("Waited too long for a buffer to become available and timed out!");
@@ -72,53 +337,223 @@ public class BufferMgr {
         }
     }
 
-    private Attempt<Buffer> tryToPin(BlockId block) {
-        Attempt<Buffer> attemptFindExisting = findExistingBuffer(block);
+    /**
+     * Does one round of background page writing: cleans the buffers next in line for replacement in every shard, but
+     * no more than the per round limit. Normally only the page writer calls this, every pageWriterIntervalMillis
+     * @return How many buffers got written
+     */
+    public int cleanBuffers() {
+        int numWritten = 0;
 
-        Buffer buffer = attemptFindExisting.value();
-        if (attemptFindExisting.hasFailed()) {
-            Attempt<Buffer> attemptChooseUnpinnedBuffer = chooseUnPinnedBuffer();
-            if (attemptChooseUnpinnedBuffer.hasFailed())
-                return Attempt.failed();
+        for (BufferPoolShard shard : shards) {
+            if (numWritten == pageWriterMaxPagesPerRound)
+                break;
 
-            buffer = attemptChooseUnpinnedBuffer.value();
-            buffer.assignToBlock(block);
+            numWritten += shard.cleanAheadOfReplacement(pageWriterLowWaterMarkPerShard,
+                    pageWriterMaxPagesPerRound - numWritten);
         }
 
-        if (!buffer.isPinned())
-            numAvailableBuffers.decrementAndGet();
+        backgroundWriteCounter.addAndGet(numWritten);
+        return numWritten;
+    }
+
+    /**
+     * Saves which blocks are in the pool, hottest first, for {@link #warmUp()} to read back in after a restart.
+     * Checkpoints and shutdown do this on their own when warm restarts are enabled
+     * @return How many blocks got saved
+     */
+    public int saveResidentBlocks() {
+        List<BufferPoolShard.ResidentBlock> residentBlocks = new ArrayList<>(numBuffers);
+        for (BufferPoolShard shard : shards)
+            shard.collectResidentBlocks(residentBlocks);
 
-        buffer.pin();
+        residentBlocks.sort(Comparator.comparingLong(BufferPoolShard.ResidentBlock::lastUsed).reversed());
+        warmRestartFile.save(residentBlocks.stream().map(BufferPoolShard.ResidentBlock::block).toList());
 
-        return Attempt.succeeded(buffer);
+        return residentBlocks.size();
     }
 
-    private Attempt<Buffer> findExistingBuffer(BlockId block) {
-        for (Buffer buffer: bufferPool) {
-            BlockId blk = buffer.getBlock();
-            if (blk != null && blk == block)
-                return Attempt.succeeded(buffer);
-        }
+    /**
+     * Reads the blocks saved by {@link #saveResidentBlocks()} back into the pool in the background. Only as many of the
+     * hottest blocks as the pool has buffers are read, and they are read sorted by file and block number, many blocks
+     * at a time, instead of in the random order they were used in.
+     *
+     * Pins don't wait for any of this. The warm up only ever fills free buffers, so it stops on its own once the pins
+     * have taken them, and it never pushes out a block somebody actually asked for. Blocks of files that are gone, or
+     * shorter than they used to be, are skipped
+     * @return Future for the number of blocks read back in
+     */
+    public CompletableFuture<Integer> warmUp() {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!warmRestartFile.exists())
+                return 0;
+
+            List<BlockId> blocks = new ArrayList<>(warmRestartFile.load().stream().limit(numBuffers).toList());
+            blocks.removeIf(block -> !blockExists(block));
+            blocks.sort(Comparator.comparing(BlockId::filename).thenComparingInt(BlockId::blockNum));
+
+            int blocksize = fileMgr.getBlocksize();
+            ByteBuffer readBuffer = ByteBuffer.allocate(warmUpReadBlocks * blocksize);
+            int numWarmed = 0;
+
+            int runStart = 0;
+            while (runStart < blocks.size() && !isClosed && hasFreeFrames()) {
+                // Consecutive blocks of the same file get read with one read
+                int runEnd = runStart + 1;
+                while (runEnd < blocks.size() && runEnd - runStart < warmUpReadBlocks
+                        && isNextBlock(blocks.get(runEnd - 1), blocks.get(runEnd)))
+                    runEnd++;
+
+                int numBlocks = runEnd - runStart;
+                fileMgr.readBlocksFromDisk(blocks.get(runStart), numBlocks, readBuffer.clear());
+
+                for (int i = 0; i < numBlocks; i++) {
+                    BlockId block = blocks.get(runStart + i);
+                    if (shardFor(block).warmBlock(block, readBuffer.slice(i * blocksize, blocksize)))
+                        numWarmed++;
+                }
+
+                runStart = runEnd;
+            }
+
+            prefetchCounter.addAndGet(numWarmed);
+            return numWarmed;
+        }, prefetchExecutor);
+    }
+
+    // Stops the background page writer and the prefetching. Doesn't flush anything, that's up to the transactions
+    @Override
+    public synchronized void close() {
+        if (isWarmRestartEnabled && !isClosed)
+            saveResidentBlocks();
 
-        return Attempt.failed();
+        isClosed = true;
+        prefetchExecutor.shutdown();
+
+        if (pageWriter == null)
+            return;
+
+        pageWriter.interrupt();
+        try {
+            pageWriter.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private Attempt<Buffer> chooseUnPinnedBuffer() {
-        for (Buffer buffer : bufferPool) {
-            if (!buffer.isPinned())
-                return Attempt.succeeded(buffer);
+    private void runPageWriter() {
+        while (!isClosed) {
+            try {
+                Thread.sleep(pageWriterIntervalMillis);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                cleanBuffers();
+            }
+            catch (RuntimeException e) {
+                // The buffer stays dirty, so whoever replaces it will retry the write and get the error themselves
+                LOGGER.log(System.Logger.Level.WARNING, "Background page writer failed to write a buffer", e);
+            }
         }
+    }
+
+    /**
+     * Reads blocks of a file into unpinned buffers in the background, so a scan can pin them later without waiting on
+     * the disk. Blocks past the end of the file, and blocks that are already cached, are skipped. Prefetching is best
+     * effort, so it stops early if there are no unpinned buffers left to read into
+     * @param filename The file to read from
+     * @param fromBlock The first block to read
+     * @param count How many blocks to read, starting at fromBlock
+     * @return Future for the number of blocks actually read in
+     */
+    public CompletableFuture<Integer> prefetch(String filename, int fromBlock, int count) {
+        return CompletableFuture.supplyAsync(() -> {
+            int lastBlock = Math.min(fromBlock + count, fileMgr.numBlocksInFile(filename)) - 1;
+            int numPrefetched = 0;
 
-        // Keeping here for experimentation. If we confirmed there is an unpinned buffer, then being unable to pin
-        // is a serious error, but the book doesn't account for this. I'll keep this around in case I want to change it
-        // throw new RuntimeException("We thought there was an unpinned buffer to use, but somehow, we are wrong!");
+            // Blocks get read here, without holding the lock of their shard. The shard only copies them into a buffer
+            ByteBuffer readBuffer = ByteBuffer.allocate(fileMgr.getBlocksize());
 
-        return Attempt.failed();
+            for (int blockNum = Math.max(fromBlock, 0); blockNum <= lastBlock; blockNum++) {
+                BlockId block = new BlockId(filename, blockNum);
+                BufferPoolShard shard = shardFor(block);
+                if (!shard.shouldPrefetch(block))
+                    continue;
+
+                fileMgr.readBlocksFromDisk(block, 1, readBuffer.clear());
+                if (shard.prefetchBlock(block, readBuffer)) {
+                    prefetchCounter.incrementAndGet();
+                    numPrefetched++;
+                }
+            }
+
+            return numPrefetched;
+        }, prefetchExecutor);
     }
 
-    private boolean hasWaitedTooLong(long startTime) {
-        return System.currentTimeMillis() - startTime > MAX_TIME_WAIT_FOR_PIN_MILLISECONDS;
+    /**
+     * Keeps track of pins that go through a file one block after another (like a table scan). Once there have been
+     * enough of them in a row, prefetches the next readAheadBlocks, and then the next batch whenever the scan gets
+     * halfway through the last one
+     */
+    private void readAheadIfSequential(BlockId block) {
+        if (readAheadBlocks <= 0)
+            return;
+
+        int blockNum = block.blockNum();
+        SequentialAccess access = sequentialAccesses.compute(block.filename(), (filename, lastAccess) -> {
+            if (lastAccess == null || blockNum != lastAccess.lastBlockNum() + 1)
+                return new SequentialAccess(blockNum, 1, blockNum);
+
+            return new SequentialAccess(blockNum, lastAccess.numSequentialPins() + 1, lastAccess.prefetchedUpTo());
+        });
+
+        if (access.numSequentialPins() < sequentialPinsBeforeReadAhead
+                || access.prefetchedUpTo() - blockNum > readAheadBlocks / 2)
+            return;
+
+        // Only kick off the read ahead if nobody else beat us to it
+        int fromBlock = Math.max(access.prefetchedUpTo(), blockNum) + 1;
+        SequentialAccess prefetchedAccess = new SequentialAccess(blockNum, access.numSequentialPins(),
+                fromBlock + readAheadBlocks - 1);
+        if (sequentialAccesses.replace(block.filename(), access, prefetchedAccess))
+            prefetch(block.filename(), fromBlock, readAheadBlocks);
+    }
+
+    // Checked before asking for its length, since asking for the length of a file that's gone would create it again
+    private boolean blockExists(BlockId block) {
+        if (!Files.exists(fileMgr.getDbDirectory().resolve(block.filename())))
+            return false;
+
+        return block.blockNum() < fileMgr.numBlocksInFile(block.filename());
+    }
+
+    private static boolean isNextBlock(BlockId previous, BlockId block) {
+        return previous.filename().equals(block.filename()) && block.blockNum() == previous.blockNum() + 1;
     }
 
+    private boolean hasFreeFrames() {
+        for (BufferPoolShard shard : shards) {
+            if (shard.numFreeFrames() > 0)
+                return true;
+        }
+
+        return false;
+    }
 
+    private BufferPoolShard shardFor(BlockId block) {
+        return shards[shardIndexFor(block)];
+    }
+
+    private int shardIndexFor(BlockId block) {
+        // Mix the high bits in since consecutive blocks of one file only differ in the low bits of the hash
+        int hash = Objects.hashCode(block);
+        hash ^= (hash >>> 16);
+
+        return Math.floorMod(hash, shards.length);
+    }
 }
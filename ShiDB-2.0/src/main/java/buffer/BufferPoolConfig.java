@@ -0,0 +1,13 @@
+package buffer;
+
+import java.util.List;
+
+/**
+ * One entry of the "buffer_mgr_pools" config. Blocks of any file whose name matches one of the filePatterns (regular
+ * expressions, matched against the whole filename) go in this pool instead of the default one
+ * @param name What the pool is called, like "keep" or "recycle"
+ * @param numBuffers How many buffers the pool starts with
+ * @param replacementPolicy Same names as the "buffer_mgr_replacement_policy" config entry
+ * @param filePatterns Which files the pool holds the blocks of
+ */
+public record BufferPoolConfig(String name, int numBuffers, String replacementPolicy, List<String> filePatterns) {}
@@ -0,0 +1,65 @@
+package buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pool wide statistics that every shard of a BufferMgr keeps up to date. The shards get this instead of the
+ * BufferMgr itself, so the BufferMgr doesn't have to hand itself out before it's done being built
+ */
+class BufferPoolCounters {
+    private final AtomicInteger numAvailableBuffers;
+
+    // Final, so a reset can't leave a thread that's counting holding on to a counter that isn't used anymore
+    private final AtomicLong cacheHitCounter = new AtomicLong(0);
+    private final AtomicLong cacheMissCounter = new AtomicLong(0);
+    private final AtomicLong dirtyReplacementCounter = new AtomicLong(0);
+
+    BufferPoolCounters(int numBuffers) {
+        numAvailableBuffers = new AtomicInteger(numBuffers);
+    }
+
+    int getNumAvailableBuffers() {
+        return numAvailableBuffers.get();
+    }
+
+    long getCacheHitCounter() {
+        return cacheHitCounter.get();
+    }
+
+    long getCacheMissCounter() {
+        return cacheMissCounter.get();
+    }
+
+    long getDirtyReplacementCounter() {
+        return dirtyReplacementCounter.get();
+    }
+
+    // The number of available buffers isn't a statistic, it's the state of the pool, so it never gets reset
+    void reset() {
+        cacheHitCounter.set(0);
+        cacheMissCounter.set(0);
+        dirtyReplacementCounter.set(0);
+    }
+
+    void bufferBecameAvailable() {
+        numAvailableBuffers.incrementAndGet();
+    }
+
+    void bufferBecameUnavailable() {
+        numAvailableBuffers.decrementAndGet();
+    }
+
+    void recordCacheHit() {
+        cacheHitCounter.incrementAndGet();
+    }
+
+    void recordCacheMiss() {
+        cacheMissCounter.incrementAndGet();
+    }
+
+    // A pin had to write out a dirty buffer before it could replace it
+    void recordDirtyReplacement() {
+        dirtyReplacementCounter.incrementAndGet();
+    }
+}
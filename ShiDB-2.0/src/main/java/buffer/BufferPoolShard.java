@@ -0,0 +1,789 @@
+package buffer;
+
+import file.BlockId;
+import file.FileMgr;
+import file.PageArena;
+import log.LogMgr;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One partition of the buffer pool. Every block hashes to exactly one shard, and the shard owns the buffers, page
+ * table and replacement policy for the blocks that hash to it. Each shard has its own lock, so pins of blocks in
+ * different shards never wait on each other. The lock isn't held for a pin's disk I/O either, see Load.
+ *
+ * The BufferMgr is the only thing that should touch this class, hence it being package private
+ */
+class BufferPoolShard {
+    private final BufferPoolCounters counters;
+
+    private final FileMgr fileMgr;
+    private final LogMgr logMgr;
+
+    // Indexed by frame id. While the shard is shrinking, the frames past numFrames are retiring: they get taken out of
+    // the pool as soon as nobody has them pinned, and the list is cut down once they're all gone
+    private final ArrayList<Buffer> buffers;
+    private int numFrames;
+
+    // Page table mapping a block to the buffer currently holding it. BlockId is a record, so lookups are done by
+    // value and not by reference
+    private final Map<BlockId, Buffer> pageTable;
+
+    // Buffers that have never been assigned a block. These are always used before evicting anything
+    private final ArrayDeque<Buffer> freeFrames;
+
+    // Blocks that are being read in, and the blocks their frames held before. Neither is in the page table meanwhile
+    private final Map<BlockId, Load> loads = new HashMap<>();
+
+    // Which buffers each transaction has modified, so commits don't have to look at every buffer
+    private final DirtyPageTable dirtyPageTable = new DirtyPageTable();
+
+    // Decides which of the buffers that hold a block, but aren't pinned, gets replaced
+    private final ReplacementPolicy replacementPolicy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Pins that are waiting for a buffer to free up, in the order they started waiting
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private final WaitTimeHistogram waitTimeHistogram;
+
+    // Each waiter gets its own condition so freeing one buffer wakes up exactly one thread
+    private static class Waiter {
+        private final BlockId block;
+        private final BufferAccessStrategy.Ring ring;
+        private final Condition bufferPinned;
+        // Set (already pinned) by whoever hands the waiter a buffer. If the block still has to be read in, the buffer
+        // comes with a Load that the waiter sees through itself
+        private Buffer pinnedBuffer = null;
+
+        private Waiter(BlockId block, BufferAccessStrategy.Ring ring, Condition bufferPinned) {
+            this.block = block;
+            this.ring = ring;
+            this.bufferPinned = bufferPinned;
+        }
+    }
+
+    /**
+     * A frame that was taken for a new block under the lock, whose I/O (writing out the old block if it's dirty, then
+     * reading in the new one) is done without it. Until that's over, both blocks map to the load instead of a buffer,
+     * and anybody who wants either of them waits for it to finish. The frame is already pinned for whoever it was taken
+     * for, so nothing else in the shard touches it in the meantime
+     */
+    private static class Load {
+        private final Buffer buffer;
+        private final BlockId block;
+        private final BlockId oldBlock;
+        private final BufferAccessStrategy.Ring ring;
+        private final Condition finished;
+
+        private Load(Buffer buffer, BlockId block, BufferAccessStrategy.Ring ring, Condition finished) {
+            this.buffer = buffer;
+            this.block = block;
+            this.oldBlock = buffer.getBlock();
+            this.ring = ring;
+            this.finished = finished;
+        }
+    }
+
+    // How many of the buffers next in line for replacement to look through for a clean one
+    private final int cleanVictimLookahead;
+
+    // A block in the pool, and the last time anybody used it. Pinned blocks are being used right now, so they're the
+    // newest of all
+    record ResidentBlock(BlockId block, long lastUsed) {}
+
+    /**
+     * @param pageArena Where the pages of the shard's buffers live
+     * @param firstPageIndex The shard's buffers use the pages of the arena from here on
+     */
+    BufferPoolShard(BufferPoolCounters counters, FileMgr fileMgr, LogMgr logMgr, int numBuffers,
+                    BufferMgr.bufferSelectionStrategy strategy, WaitTimeHistogram waitTimeHistogram,
+                    int cleanVictimLookahead, PageArena pageArena, int firstPageIndex) {
+        this.counters = counters;
+        this.fileMgr = fileMgr;
+        this.logMgr = logMgr;
+        this.numFrames = numBuffers;
+        this.cleanVictimLookahead = cleanVictimLookahead;
+        this.waitTimeHistogram = waitTimeHistogram;
+        this.buffers = new ArrayList<>(numBuffers);
+        this.pageTable = new HashMap<>();
+        this.freeFrames = new ArrayDeque<>(numBuffers);
+        this.replacementPolicy = ReplacementPolicy.create(strategy, numBuffers);
+
+        for (int i = 0; i < numBuffers; i++) {
+            Buffer buffer = new Buffer(fileMgr, logMgr, i, dirtyPageTable, pageArena.newPage(firstPageIndex + i));
+            buffers.add(buffer);
+            freeFrames.add(buffer);
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return numFrames;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds buffers to the shard. Frames that were still retiring from an earlier shrink get used again before any new
+     * buffers are created
+     * @param pageArena Where the pages of the new buffers live
+     * @param firstPageIndex The new buffers use the pages of the arena from here on
+     * @return How many of the arena's pages got used
+     */
+    int grow(int numToAdd, PageArena pageArena, int firstPageIndex) {
+        lock.lock();
+        try {
+            int newNumFrames = numFrames + numToAdd;
+            replacementPolicy.resize(Math.max(newNumFrames, buffers.size()));
+
+            // A retiring frame that's still pinned just stays where it is. One that was already taken out goes back
+            // in as a free frame
+            for (int frameId = numFrames; frameId < Math.min(newNumFrames, buffers.size()); frameId++) {
+                Buffer buffer = buffers.get(frameId);
+                if (!buffer.isPinned()) {
+                    freeFrames.add(buffer);
+                    counters.bufferBecameAvailable();
+                }
+            }
+
+            int numPagesUsed = 0;
+            while (buffers.size() < newNumFrames) {
+                Buffer buffer = new Buffer(fileMgr, logMgr, buffers.size(), dirtyPageTable,
+                        pageArena.newPage(firstPageIndex + numPagesUsed++));
+                buffers.add(buffer);
+                freeFrames.add(buffer);
+                counters.bufferBecameAvailable();
+            }
+
+            numFrames = newNumFrames;
+            serveWaiters();
+
+            return numPagesUsed;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes buffers out of the shard, highest frame ids first. Unpinned ones are taken out right away (written out
+     * first if they're dirty). Pinned ones keep working like normal until their last unpin, and get taken out then,
+     * so nobody has to wait for the shrink
+     */
+    void shrink(int numToRemove) {
+        lock.lock();
+        try {
+            if (numToRemove >= numFrames)
+                throw new IllegalArgumentException("A shard needs at least 1 buffer, can't remove " + numToRemove
+                        + " of " + numFrames);
+
+            numFrames -= numToRemove;
+
+            // Free frames don't hold anything, they only have to come off the free list
+            int numFreeFrames = freeFrames.size();
+            freeFrames.removeIf(buffer -> buffer.getFrameId() >= numFrames);
+            int numRetired = numFreeFrames - freeFrames.size();
+
+            for (int frameId = numFrames; frameId < buffers.size(); frameId++) {
+                Buffer buffer = buffers.get(frameId);
+                if (!buffer.isPinned() && buffer.hasBlock()) {
+                    retireFrame(buffer);
+                    numRetired++;
+                }
+            }
+
+            for (int i = 0; i < numRetired; i++)
+                counters.bufferBecameUnavailable();
+
+            trimRetiredFrames();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    int numModifiedBuffers() {
+        return dirtyPageTable.size();
+    }
+
+    // Writes out every buffer the transaction modified. Returns how many got written
+    int flushAllBuffers(long modifyingTxNum) {
+        lock.lock();
+        try {
+            List<Buffer> modifiedBuffers = dirtyPageTable.buffersModifiedBy(modifyingTxNum);
+            modifiedBuffers.forEach(this::waitForLoadOf);
+
+            return flushBuffers(modifiedBuffers, modifyingTxNum);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes out every modified buffer, no matter which transaction modified it. Returns how many got written
+    int flushAllModifiedBuffers() {
+        lock.lock();
+        try {
+            int numFlushed = 0;
+            for (Buffer buffer : dirtyPageTable.allModifiedBuffers()) {
+                waitForLoadOf(buffer);
+
+                // Somebody else might have written it out before we got the lock
+                if (buffer.isModified()) {
+                    buffer.flush();
+                    numFlushed++;
+                }
+            }
+
+            return numFlushed;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // The table was read before we had the lock, so skip anything that got written or changed hands since then
+    private int flushBuffers(List<Buffer> modifiedBuffers, long modifyingTxNum) {
+        int numFlushed = 0;
+        for (Buffer buffer : modifiedBuffers) {
+            if (buffer.getModifyingTxNum() == modifyingTxNum) {
+                buffer.flush();
+                numFlushed++;
+            }
+        }
+
+        return numFlushed;
+    }
+
+    void unpinBuffer(Buffer buffer) {
+        lock.lock();
+        try {
+            buffer.unpin();
+            if (!buffer.isPinned() && isRetiring(buffer)) {
+                retireFrame(buffer);
+                trimRetiredFrames();
+            }
+            else if (!buffer.isPinned()) {
+                counters.bufferBecameAvailable();
+
+                if (isInShard(buffer)) {
+                    replacementPolicy.bufferUnpinned(buffer);
+                    serveWaiters();
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pins the block, waiting in line behind any other pins in this shard that are already waiting for a buffer.
+     * A waiting pin is never woken up just to retry: whoever frees a buffer pins it for the waiter at the front of
+     * the line and only then wakes that one waiter up. If the block has to be read in, that happens after the lock is
+     * let go, so the other pins of the shard don't wait on this one's disk I/O. That goes for waiters too: they get
+     * handed the buffer, and do their own I/O (and get their own errors) once they wake up.
+     */
+    Attempt<Buffer> pinBuffer(BlockId block, long maxWaitMillis) throws InterruptedException {
+        return pinBuffer(block, maxWaitMillis, BufferAccessStrategy.Ring.NO_RING);
+    }
+
+    /**
+     * Same as a normal pin, except that if the block has to be read in, it goes in a buffer from the ring when the
+     * ring has one to reuse, instead of a victim from the replacement policy
+     */
+    Attempt<Buffer> pinBuffer(BlockId block, long maxWaitMillis, BufferAccessStrategy.Ring ring)
+            throws InterruptedException {
+        lock.lock();
+        try {
+            // Somebody else is reading the block in, or writing it out to replace it. Either way, once they're done
+            // it's cached or it's on disk
+            waitForLoad(block);
+
+            // A block that is already cached doesn't take a buffer away from anybody, so it can skip the line.
+            // Anything that needs a buffer has to go behind the pins that are already waiting for one
+            Attempt<Buffer> attemptToPin = waiters.isEmpty() ? tryToPin(block, ring) : tryToPinExisting(block, ring);
+            if (attemptToPin.hasFailed())
+                attemptToPin = waitForBuffer(block, ring, maxWaitMillis);
+
+            if (attemptToPin.hasSucceeded()) {
+                Attempt<Load> attemptFindLoad = findPendingLoad(block, attemptToPin.value());
+                if (attemptFindLoad.hasSucceeded())
+                    runLoad(attemptFindLoad.value());
+            }
+
+            return attemptToPin;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a prefetch of the block would be taken right now. Checked before the prefetch reads the block, so blocks
+     * that are already cached don't get read for nothing
+     */
+    boolean shouldPrefetch(BlockId block) {
+        lock.lock();
+        try {
+            // Prefetching is never worth making an actual pin wait longer
+            return waiters.isEmpty() && !isCachedOrLoading(block);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a prefetched block in an unpinned buffer without pinning it, so the pin that comes for it later is a cache
+     * hit. The block gets read before this is called, without the lock, so the pins of the shard never wait on a
+     * prefetch's disk read. This is best effort: nothing happens if the block got cached while it was being read, a pin
+     * is waiting for a buffer, or every buffer is pinned
+     * @param blockContents The block's bytes
+     * @return true if the block got put in a buffer
+     */
+    boolean prefetchBlock(BlockId block, ByteBuffer blockContents) {
+        lock.lock();
+        try {
+            if (!waiters.isEmpty() || isCachedOrLoading(block))
+                return false;
+
+            Attempt<Buffer> attemptChooseUnpinnedBuffer = chooseUnPinnedBuffer();
+            if (attemptChooseUnpinnedBuffer.hasFailed())
+                return false;
+
+            Buffer buffer = attemptChooseUnpinnedBuffer.value();
+            replaceBlock(buffer, block, () -> buffer.assignToBlock(block, blockContents));
+
+            replacementPolicy.bufferLoaded(buffer);
+
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a block that was already read in (see the BufferMgr warm up) in a free buffer, without pinning it. Unlike
+     * prefetching, this never replaces anything, since any block a pin brought in is worth more than a guess from
+     * before the restart
+     * @param blockContents The block's bytes
+     * @return true if the block got put in a buffer
+     */
+    boolean warmBlock(BlockId block, ByteBuffer blockContents) {
+        lock.lock();
+        try {
+            if (!waiters.isEmpty() || freeFrames.isEmpty() || isCachedOrLoading(block))
+                return false;
+
+            Buffer buffer = freeFrames.poll();
+            replaceBlock(buffer, block, () -> buffer.assignToBlock(block, blockContents));
+            replacementPolicy.bufferLoaded(buffer);
+
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    int numFreeFrames() {
+        lock.lock();
+        try {
+            return freeFrames.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Adds every block in this shard to the list, along with when it was last used
+    void collectResidentBlocks(List<ResidentBlock> residentBlocks) {
+        lock.lock();
+        try {
+            for (Buffer buffer : pageTable.values()) {
+                long lastUsed = buffer.isPinned()
+                        ? Long.MAX_VALUE
+                        : Math.max(buffer.getLastTimePinned(), buffer.getLastTimeUnpinned());
+                residentBlocks.add(new ResidentBlock(buffer.getBlock(), lastUsed));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes out dirty buffers that are next in line to be replaced, so the pins that replace them don't have to
+     * write them first. Stops once the first lowWaterMark buffers in line are all clean (free buffers count as clean),
+     * or after maxWrites writes
+     * @return How many buffers got written
+     */
+    int cleanAheadOfReplacement(int lowWaterMark, int maxWrites) {
+        lock.lock();
+        try {
+            int numCleanNeeded = lowWaterMark - freeFrames.size();
+            if (numCleanNeeded <= 0)
+                return 0;
+
+            int numWritten = 0;
+            for (Buffer buffer : replacementPolicy.peekVictims(numCleanNeeded)) {
+                if (numWritten == maxWrites)
+                    break;
+
+                if (buffer.isModified()) {
+                    buffer.flush();
+                    numWritten++;
+                }
+            }
+
+            return numWritten;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private Attempt<Buffer> waitForBuffer(BlockId block, BufferAccessStrategy.Ring ring, long maxWaitMillis)
+            throws InterruptedException {
+        Waiter waiter = new Waiter(block, ring, lock.newCondition());
+        waiters.add(waiter);
+
+        long startTime = System.nanoTime();
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        try {
+            while (waiter.pinnedBuffer == null && remainingNanos > 0)
+                remainingNanos = waiter.bufferPinned.awaitNanos(remainingNanos);
+        }
+        catch (InterruptedException e) {
+            giveUpWaiting(waiter);
+            throw e;
+        }
+
+        long waitNanos = System.nanoTime() - startTime;
+
+        if (waiter.pinnedBuffer == null) {
+            waiters.remove(waiter);
+            waitTimeHistogram.recordTimeout(waitNanos);
+            return Attempt.failed();
+        }
+
+        waitTimeHistogram.recordWait(waitNanos);
+        return Attempt.succeeded(waiter.pinnedBuffer);
+    }
+
+    // If the buffer got handed over right as we were interrupted, it has to be given back or it stays pinned forever.
+    // Same for a buffer that was taken for the block: the load gets dropped, and the buffer keeps what it had
+    private void giveUpWaiting(Waiter waiter) {
+        waiters.remove(waiter);
+
+        if (waiter.pinnedBuffer == null)
+            return;
+
+        Attempt<Load> attemptFindLoad = findPendingLoad(waiter.block, waiter.pinnedBuffer);
+        if (attemptFindLoad.hasSucceeded()) {
+            abandonLoad(attemptFindLoad.value());
+            serveWaiters();
+        }
+        else {
+            unpinBuffer(waiter.pinnedBuffer);
+        }
+    }
+
+    // Hands buffers to waiters in the order they started waiting, until we run out of waiters or buffers
+    private void serveWaiters() {
+        while (!waiters.isEmpty()) {
+            Waiter waiter = waiters.peek();
+
+            // Whoever is loading the block serves the waiters again once it's done
+            if (loads.containsKey(waiter.block))
+                return;
+
+            // If the block isn't cached, this only takes a buffer for it. The waiter reads the block in itself
+            Attempt<Buffer> attemptToPin = tryToPin(waiter.block, waiter.ring);
+            if (attemptToPin.hasFailed())
+                return;
+
+            waiters.poll();
+            waiter.pinnedBuffer = attemptToPin.value();
+            waiter.bufferPinned.signal();
+        }
+    }
+
+    private Attempt<Buffer> tryToPinExisting(BlockId block, BufferAccessStrategy.Ring ring) {
+        if (findExistingBuffer(block).hasFailed())
+            return Attempt.failed();
+
+        return tryToPin(block, ring);
+    }
+
+    /**
+     * Pins the block if it's cached. Otherwise takes an unpinned buffer for it, pins that, and starts a Load for it.
+     * The block isn't read in yet when this returns, whoever the buffer is for has to see the load through
+     */
+    private Attempt<Buffer> tryToPin(BlockId block, BufferAccessStrategy.Ring ring) {
+        Attempt<Buffer> attemptFindExisting = findExistingBuffer(block);
+
+        if (attemptFindExisting.hasSucceeded()) {
+            Buffer buffer = attemptFindExisting.value();
+            counters.recordCacheHit();
+
+            if (!buffer.isPinned())
+                counters.bufferBecameUnavailable();
+
+            buffer.pin();
+            replacementPolicy.bufferPinned(buffer);
+
+            return Attempt.succeeded(buffer);
+        }
+
+        Attempt<Buffer> attemptChooseUnpinnedBuffer = reuseRingBuffer(ring);
+        if (attemptChooseUnpinnedBuffer.hasFailed())
+            attemptChooseUnpinnedBuffer = chooseUnPinnedBuffer();
+
+        if (attemptChooseUnpinnedBuffer.hasFailed())
+            return Attempt.failed();
+
+        Buffer victim = attemptChooseUnpinnedBuffer.value();
+
+        // This pin has to wait for the old contents to be written before it can even start reading its own
+        if (victim.isModified())
+            counters.recordDirtyReplacement();
+
+        counters.recordCacheMiss();
+        counters.bufferBecameUnavailable();
+
+        // The policy only hears about the pin once the block is actually in the buffer
+        victim.pin();
+        startLoad(victim, block, ring);
+
+        return Attempt.succeeded(victim);
+    }
+
+    private void startLoad(Buffer buffer, BlockId block, BufferAccessStrategy.Ring ring) {
+        Load load = new Load(buffer, block, ring, lock.newCondition());
+
+        loads.put(block, load);
+        if (load.oldBlock != null) {
+            pageTable.remove(load.oldBlock);
+            loads.put(load.oldBlock, load);
+        }
+    }
+
+    /**
+     * Does the I/O of a load this thread started, with the lock let go for it. Holds the lock again by the time this
+     * returns or throws. If the I/O fails, the buffer goes back to the shard and the error gets thrown
+     */
+    private void runLoad(Load load) {
+        RuntimeException failure = null;
+
+        lock.unlock();
+        try {
+            load.buffer.assignToBlock(load.block);
+        }
+        catch (RuntimeException e) {
+            failure = e;
+        }
+        finally {
+            lock.lock();
+        }
+
+        if (failure != null) {
+            abandonLoad(load);
+            serveWaiters();
+            throw failure;
+        }
+
+        completeLoad(load);
+        serveWaiters();
+    }
+
+    // The block is in, so it goes in the page table, and the policy finally hears about the pin
+    private void completeLoad(Load load) {
+        endLoad(load);
+
+        pageTable.put(load.block, load.buffer);
+        replacementPolicy.bufferPinned(load.buffer);
+        load.ring.add(load.buffer);
+    }
+
+    /**
+     * Gives the buffer of a load that failed back to the shard, unpinned. Whatever block it still holds is still good:
+     * if writing out the old block failed, the buffer goes back to the policy with it. If reading the new block failed,
+     * the buffer holds nothing and goes on the free list. Either way it stays part of the shard instead of being lost
+     */
+    private void abandonLoad(Load load) {
+        endLoad(load);
+
+        Buffer buffer = load.buffer;
+        buffer.unpin();
+        if (buffer.hasBlock())
+            pageTable.put(buffer.getBlock(), buffer);
+
+        if (isRetiring(buffer)) {
+            retireFrame(buffer);
+            trimRetiredFrames();
+            return;
+        }
+
+        counters.bufferBecameAvailable();
+
+        // The policy (or the ring) already let go of the buffer when it was picked, so it has to be given back the
+        // way a newly loaded block would be, not just unpinned
+        if (buffer.hasBlock())
+            replacementPolicy.bufferLoaded(buffer);
+        else
+            freeFrames.add(buffer);
+    }
+
+    // Takes the load's placeholders out, and wakes up everybody waiting for either of its blocks
+    private void endLoad(Load load) {
+        loads.remove(load.block);
+        if (load.oldBlock != null)
+            loads.remove(load.oldBlock);
+
+        load.finished.signalAll();
+    }
+
+    // A load is one write and one read at most, so this doesn't count against how long a pin is willing to wait
+    private void waitForLoad(BlockId block) throws InterruptedException {
+        Load load;
+        while ((load = loads.get(block)) != null)
+            load.finished.await();
+    }
+
+    // A dirty buffer that's being replaced gets written out by whoever is replacing it. Writing it at the same time
+    // would race with the read of the new block, so wait for the load instead
+    private void waitForLoadOf(Buffer buffer) {
+        Attempt<Load> attemptFindLoad;
+        while ((attemptFindLoad = findLoadOf(buffer)).hasSucceeded())
+            attemptFindLoad.value().finished.awaitUninterruptibly();
+    }
+
+    private Attempt<Load> findLoadOf(Buffer buffer) {
+        for (Load load : loads.values()) {
+            if (load.buffer == buffer)
+                return Attempt.succeeded(load);
+        }
+
+        return Attempt.failed();
+    }
+
+    // The load a pin still has to see through, if the buffer it got was taken for the block instead of being cached
+    private Attempt<Load> findPendingLoad(BlockId block, Buffer buffer) {
+        Load load = loads.get(block);
+        if (load == null || load.buffer != buffer)
+            return Attempt.failed();
+
+        return Attempt.succeeded(load);
+    }
+
+    private boolean isCachedOrLoading(BlockId block) {
+        return loads.containsKey(block) || findExistingBuffer(block).hasSucceeded();
+    }
+
+    /**
+     * Gives an unpinned buffer (a free frame, or one the policy gave up) to a block that was already read in (see
+     * prefetching and the warm up). The old block only leaves the page table once the assignment worked. If writing out
+     * the old contents fails, the buffer still holds its old block and goes back to the policy as a loaded block
+     * @param assign Writes out the old contents if they're dirty and copies the new block's contents into the page
+     */
+    private void replaceBlock(Buffer buffer, BlockId block, Runnable assign) {
+        BlockId oldBlock = buffer.getBlock();
+        try {
+            assign.run();
+        }
+        catch (RuntimeException e) {
+            // The policy already let go of the buffer when it was picked, so it has to be given back the way a newly
+            // loaded block would be, not just unpinned
+            if (buffer.hasBlock()) {
+                replacementPolicy.bufferLoaded(buffer);
+            }
+            else {
+                if (oldBlock != null)
+                    pageTable.remove(oldBlock);
+                freeFrames.add(buffer);
+            }
+
+            throw e;
+        }
+
+        if (oldBlock != null)
+            pageTable.remove(oldBlock);
+        pageTable.put(block, buffer);
+    }
+
+    private Attempt<Buffer> findExistingBuffer(BlockId block) {
+        Buffer buffer = pageTable.get(block);
+        if (buffer == null)
+            return Attempt.failed();
+
+        return Attempt.succeeded(buffer);
+    }
+
+    private Attempt<Buffer> reuseRingBuffer(BufferAccessStrategy.Ring ring) {
+        Attempt<Buffer> attemptReuse = ring.nextToReuse();
+        if (attemptReuse.hasFailed() || !isInShard(attemptReuse.value()))
+            return Attempt.failed();
+
+        // Taking it out from under the policy, the same as if the policy had picked it
+        replacementPolicy.bufferRemoved(attemptReuse.value());
+        return attemptReuse;
+    }
+
+    private Attempt<Buffer> chooseUnPinnedBuffer() {
+        if (!freeFrames.isEmpty())
+            return Attempt.succeeded(freeFrames.poll());
+
+        Attempt<Buffer> attemptChooseVictim = replacementPolicy.chooseVictim(buffer -> !buffer.isModified(),
+                cleanVictimLookahead);
+        if (attemptChooseVictim.hasSucceeded())
+            return attemptChooseVictim;
+
+        // Keeping here for experimentation. If we confirmed there is an unpinned buffer, then being unable to pin
+        // is a serious error, but the book doesn't account for this. I'll keep this around in case I want to change it
+        // throw new RuntimeException("We thought there was an unpinned buffer to use, but somehow, we are wrong!");
+
+        return Attempt.failed();
+    }
+
+    // Buffers can be created outside of the BufferMgr (unit tests do this), so only track the ones we own
+    private boolean isInShard(Buffer buffer) {
+        int frameId = buffer.getFrameId();
+        return frameId >= 0 && frameId < numFrames && buffers.get(frameId) == buffer;
+    }
+
+    private boolean isRetiring(Buffer buffer) {
+        int frameId = buffer.getFrameId();
+        return frameId >= numFrames && frameId < buffers.size() && buffers.get(frameId) == buffer;
+    }
+
+    // Takes an unpinned frame out of the pool for good, writing it out first if it's dirty
+    private void retireFrame(Buffer buffer) {
+        replacementPolicy.bufferRemoved(buffer);
+        pageTable.remove(buffer.getBlock());
+        buffer.unassign();
+    }
+
+    // Cuts the retired frames off the end of the list. Stops at the first one that's still pinned
+    private void trimRetiredFrames() {
+        while (buffers.size() > numFrames && !buffers.getLast().isPinned())
+            buffers.removeLast();
+
+        replacementPolicy.resize(buffers.size());
+    }
+}
@@ -0,0 +1,146 @@
+package buffer;
+
+import file.BlockId;
+import file.FileMgr;
+import log.LogMgr;
+import lombok.Getter;
+import server.ConfigFetcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Several buffer pools, each with its own size, replacement policy and statistics, and a way to pick which one a
+ * block goes in. The idea is the same as the keep and recycle pools of the big databases: small hot files (like the
+ * catalog tables and the directory pages of the B-tree indexes) get a pool of their own so nothing can push them out,
+ * and huge tables that only ever get scanned get a pool of their own so they can't push anything else out.
+ *
+ * A file goes in the pool it was assigned to with {@link #assignFile(String, String)}, otherwise in the first pool
+ * whose file patterns match its name, otherwise in the default pool. The same file always goes in the same pool, so
+ * pinning and unpinning through here always finds the right one.
+ */
+public class BufferPools implements AutoCloseable {
+    public static final String DEFAULT_POOL = "default";
+
+    private record Route(Pattern filePattern, BufferMgr pool) {}
+
+    private final Map<String, BufferMgr> poolsByName = new LinkedHashMap<>();
+    private final List<Route> routes = new ArrayList<>();
+
+    // Every file gets routed once, and then looked up here from then on
+    private final ConcurrentHashMap<String, BufferMgr> poolsByFilename = new ConcurrentHashMap<>();
+
+    @Getter
+    private final BufferMgr defaultPool;
+
+    public BufferPools(FileMgr fileMgr, LogMgr logMgr, int defaultPoolSize) {
+        this(fileMgr, logMgr, defaultPoolSize, ConfigFetcher.getBufferMgrPools());
+    }
+
+    /**
+     * @param defaultPoolSize Number of buffers in the default pool, for every file no other pool takes
+     * @param poolConfigs The other pools. Their patterns are tried in this order
+     */
+    public BufferPools(FileMgr fileMgr, LogMgr logMgr, int defaultPoolSize, List<BufferPoolConfig> poolConfigs) {
+        defaultPool = new BufferMgr(fileMgr, logMgr, defaultPoolSize);
+        poolsByName.put(DEFAULT_POOL, defaultPool);
+
+        for (BufferPoolConfig poolConfig : poolConfigs) {
+            if (poolsByName.containsKey(poolConfig.name()))
+                throw new IllegalArgumentException("There is already a buffer pool called " + poolConfig.name());
+
+            BufferMgr pool = new BufferMgr(poolConfig.name(), fileMgr, logMgr, poolConfig.numBuffers(),
+                    BufferMgr.bufferSelectionStrategy.valueOf(poolConfig.replacementPolicy()),
+                    ConfigFetcher.getBufferMgrNumShards());
+            poolsByName.put(poolConfig.name(), pool);
+
+            for (String filePattern : poolConfig.filePatterns())
+                routes.add(new Route(Pattern.compile(filePattern), pool));
+        }
+
+        // Only once every pool got built, so a bad config doesn't leave the pools before it running
+        for (BufferMgr pool : poolsByName.values())
+            pool.start();
+    }
+
+    public BufferMgr getPool(String poolName) {
+        BufferMgr pool = poolsByName.get(poolName);
+        if (pool == null)
+            throw new IllegalArgumentException("There is no buffer pool called " + poolName);
+
+        return pool;
+    }
+
+    public Collection<BufferMgr> getPools() {
+        return Collections.unmodifiableCollection(poolsByName.values());
+    }
+
+    /**
+     * Puts every block of the file in the given pool, no matter what the file patterns say. For when the table itself
+     * knows where it belongs (like a table marked as a fact table). Has to be called before any block of the file is
+     * pinned, since blocks already in another pool can't be moved
+     */
+    public void assignFile(String filename, String poolName) {
+        BufferMgr pool = getPool(poolName);
+
+        BufferMgr assignedPool = poolsByFilename.putIfAbsent(filename, pool);
+        if (assignedPool != null && assignedPool != pool)
+            throw new IllegalStateException("File " + filename + " is already in the " + assignedPool.getPoolName()
+                    + " buffer pool!");
+    }
+
+    public BufferMgr poolFor(String filename) {
+        return poolsByFilename.computeIfAbsent(filename, this::routeFile);
+    }
+
+    public BufferMgr poolFor(BlockId block) {
+        return poolFor(block.filename());
+    }
+
+    public Buffer pinBuffer(BlockId block) {
+        return poolFor(block).pinBuffer(block);
+    }
+
+    public void unpinBuffer(Buffer buffer) {
+        poolFor(buffer.getBlock()).unpinBuffer(buffer);
+    }
+
+    // Same as the BufferMgr version, for every pool
+    public int flushAllBuffers(long modifyingTxNum) {
+        int numFlushed = 0;
+        for (BufferMgr pool : poolsByName.values())
+            numFlushed += pool.flushAllBuffers(modifyingTxNum);
+
+        return numFlushed;
+    }
+
+    // Same as the BufferMgr version, for every pool
+    public int flushAllModifiedBuffers() {
+        int numFlushed = 0;
+        for (BufferMgr pool : poolsByName.values())
+            numFlushed += pool.flushAllModifiedBuffers();
+
+        return numFlushed;
+    }
+
+    @Override
+    public void close() {
+        for (BufferMgr pool : poolsByName.values())
+            pool.close();
+    }
+
+    private BufferMgr routeFile(String filename) {
+        for (Route route : routes) {
+            if (route.filePattern().matcher(filename).matches())
+                return route.pool();
+        }
+
+        return defaultPool;
+    }
+}
@@ -0,0 +1,138 @@
+package buffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Clock (second chance) replacement. A hand sweeps the pool in frame order starting after the last replaced buffer.
+ * Every pin sets the buffer's reference bit, and the hand clears the bit the first time it passes an unpinned
+ * buffer, so only buffers that haven't been used for a full sweep get replaced. The hand passes every frame at
+ * most twice before finding a victim, and far less than that on average.
+ *
+ * Without reference bits this becomes the RING_BUFFER strategy: the first unpinned buffer after the last replaced one
+ */
+class ClockReplacementPolicy implements ReplacementPolicy {
+    private final boolean useReferenceBits;
+    private Buffer[] frames;
+    private boolean[] isReferenced;
+    private boolean[] isUnpinned;
+    private int numUnpinned = 0;
+    private int hand = 0;
+
+    ClockReplacementPolicy(int numBuffers, boolean useReferenceBits) {
+        this.useReferenceBits = useReferenceBits;
+        frames = new Buffer[numBuffers];
+        isReferenced = new boolean[numBuffers];
+        isUnpinned = new boolean[numBuffers];
+    }
+
+    @Override
+    public void bufferPinned(Buffer buffer) {
+        int frameId = buffer.getFrameId();
+        if (isUnpinned[frameId]) {
+            isUnpinned[frameId] = false;
+            numUnpinned--;
+        }
+
+        frames[frameId] = buffer;
+        isReferenced[frameId] = true;
+    }
+
+    @Override
+    public void bufferUnpinned(Buffer buffer) {
+        int frameId = buffer.getFrameId();
+        if (!isUnpinned[frameId]) {
+            isUnpinned[frameId] = true;
+            numUnpinned++;
+        }
+
+        frames[frameId] = buffer;
+    }
+
+    // No reference bit, so the hand can take it on its first pass
+    @Override
+    public void bufferLoaded(Buffer buffer) {
+        isReferenced[buffer.getFrameId()] = false;
+        bufferUnpinned(buffer);
+    }
+
+    @Override
+    public void bufferRemoved(Buffer buffer) {
+        int frameId = buffer.getFrameId();
+        if (isUnpinned[frameId]) {
+            isUnpinned[frameId] = false;
+            numUnpinned--;
+        }
+
+        isReferenced[frameId] = false;
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim() {
+        return chooseVictim(buffer -> true, 0);
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim(Predicate<Buffer> isPreferred, int maxCandidates) {
+        if (numUnpinned == 0)
+            return Attempt.failed();
+
+        int numSkipped = 0;
+        while (true) {
+            int frameId = hand;
+            hand = (hand + 1) % frames.length;
+
+            if (!isUnpinned[frameId])
+                continue;
+
+            if (useReferenceBits && isReferenced[frameId]) {
+                isReferenced[frameId] = false;
+                continue;
+            }
+
+            // A buffer that gets passed over keeps its place in the ring, it just waits for the hand to come around
+            if (numSkipped < maxCandidates && !isPreferred.test(frames[frameId])) {
+                numSkipped++;
+                continue;
+            }
+
+            isUnpinned[frameId] = false;
+            numUnpinned--;
+            return Attempt.succeeded(frames[frameId]);
+        }
+    }
+
+    // Unreferenced buffers get replaced on the first pass of the hand, so those come before the referenced ones
+    @Override
+    public List<Buffer> peekVictims(int maxCandidates) {
+        List<Buffer> victims = new ArrayList<>();
+        List<Buffer> referencedVictims = new ArrayList<>();
+
+        for (int i = 0; i < frames.length && victims.size() < maxCandidates; i++) {
+            int frameId = (hand + i) % frames.length;
+            if (!isUnpinned[frameId])
+                continue;
+
+            if (useReferenceBits && isReferenced[frameId])
+                referencedVictims.add(frames[frameId]);
+            else
+                victims.add(frames[frameId]);
+        }
+
+        victims.addAll(referencedVictims);
+        return victims.subList(0, Math.min(maxCandidates, victims.size()));
+    }
+
+    // Frames past the new end were already removed, so there is nothing unpinned in the part that gets cut off
+    @Override
+    public void resize(int numBuffers) {
+        frames = Arrays.copyOf(frames, numBuffers);
+        isReferenced = Arrays.copyOf(isReferenced, numBuffers);
+        isUnpinned = Arrays.copyOf(isUnpinned, numBuffers);
+
+        if (hand >= numBuffers)
+            hand = 0;
+    }
+}
@@ -0,0 +1,70 @@
+package buffer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which buffers each transaction has modified and hasn't been written out yet. Committing a
+ * transaction only has to flush the buffers in its entry instead of checking every buffer in the pool, so the cost of
+ * a commit depends on how much the transaction changed and not on how big the pool is.
+ *
+ * Buffers are modified while pinned, without the shard lock, so this has to be thread safe on its own. Whoever flushes
+ * off of this should still check the buffer's modifying transaction under the shard lock, since it can change after
+ * the buffer was looked up here.
+ *
+ * Package private, each BufferPoolShard has its own and hands it to its buffers.
+ */
+class DirtyPageTable {
+    private final ConcurrentHashMap<Long, Set<Buffer>> buffersByTxNum = new ConcurrentHashMap<>();
+
+    // The buffer's modifying transaction changed. -1 means nobody (the buffer is clean)
+    void bufferModified(Buffer buffer, long oldTxNum, long newTxNum) {
+        if (oldTxNum == newTxNum)
+            return;
+
+        if (oldTxNum >= 0)
+            bufferCleaned(buffer, oldTxNum);
+
+        if (newTxNum >= 0) {
+            buffersByTxNum.compute(newTxNum, (txNum, buffers) -> {
+                Set<Buffer> modifiedBuffers = buffers == null ? new HashSet<>() : buffers;
+                modifiedBuffers.add(buffer);
+                return modifiedBuffers;
+            });
+        }
+    }
+
+    void bufferCleaned(Buffer buffer, long txNum) {
+        // Drop the whole entry once the transaction has nothing left, so finished transactions don't pile up
+        buffersByTxNum.computeIfPresent(txNum, (key, buffers) -> {
+            buffers.remove(buffer);
+            return buffers.isEmpty() ? null : buffers;
+        });
+    }
+
+    // A copy, since flushing the buffers changes the table
+    List<Buffer> buffersModifiedBy(long txNum) {
+        List<Buffer> modifiedBuffers = new ArrayList<>();
+        buffersByTxNum.computeIfPresent(txNum, (key, buffers) -> {
+            modifiedBuffers.addAll(buffers);
+            return buffers;
+        });
+
+        return modifiedBuffers;
+    }
+
+    List<Buffer> allModifiedBuffers() {
+        List<Buffer> modifiedBuffers = new ArrayList<>();
+        for (Long txNum : buffersByTxNum.keySet())
+            modifiedBuffers.addAll(buffersModifiedBy(txNum));
+
+        return modifiedBuffers;
+    }
+
+    int size() {
+        return buffersByTxNum.values().stream().mapToInt(Set::size).sum();
+    }
+}
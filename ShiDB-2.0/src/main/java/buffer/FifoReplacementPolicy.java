@@ -0,0 +1,91 @@
+package buffer;
+
+import file.BlockId;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Chooses the unpinned buffer whose block was read in the longest time ago, regardless of how often it has been
+ * used since. Load order is tracked with a counter instead of System.currentTimeMillis() so ties can't happen
+ */
+class FifoReplacementPolicy implements ReplacementPolicy {
+    private final TreeMap<Long, Buffer> unpinnedBuffers = new TreeMap<>();
+
+    // frameId -> the block that frame held when we last saw it, and when that block was loaded
+    private final Map<Integer, LoadedBlock> loadedBlocks = new HashMap<>();
+    private long loadCounter = 0;
+
+    private record LoadedBlock(BlockId block, long loadSequence) {}
+
+    @Override
+    public void bufferPinned(Buffer buffer) {
+        LoadedBlock loaded = loadedBlocks.get(buffer.getFrameId());
+
+        if (loaded != null && loaded.block().equals(buffer.getBlock())) {
+            unpinnedBuffers.remove(loaded.loadSequence());
+            return;
+        }
+
+        loadedBlocks.put(buffer.getFrameId(), new LoadedBlock(buffer.getBlock(), loadCounter++));
+    }
+
+    @Override
+    public void bufferUnpinned(Buffer buffer) {
+        unpinnedBuffers.put(loadedBlocks.get(buffer.getFrameId()).loadSequence(), buffer);
+    }
+
+    // A frame that is given back with the block it already had keeps its place in line
+    @Override
+    public void bufferLoaded(Buffer buffer) {
+        LoadedBlock loaded = loadedBlocks.get(buffer.getFrameId());
+        if (loaded == null || !loaded.block().equals(buffer.getBlock()))
+            loadedBlocks.put(buffer.getFrameId(), new LoadedBlock(buffer.getBlock(), loadCounter++));
+
+        bufferUnpinned(buffer);
+    }
+
+    @Override
+    public void bufferRemoved(Buffer buffer) {
+        LoadedBlock loaded = loadedBlocks.remove(buffer.getFrameId());
+        if (loaded != null)
+            unpinnedBuffers.remove(loaded.loadSequence());
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim() {
+        Map.Entry<Long, Buffer> oldest = unpinnedBuffers.pollFirstEntry();
+        if (oldest == null)
+            return Attempt.failed();
+
+        return Attempt.succeeded(oldest.getValue());
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim(Predicate<Buffer> isPreferred, int maxCandidates) {
+        Iterator<Buffer> candidates = unpinnedBuffers.values().iterator();
+        for (int i = 0; i < maxCandidates && candidates.hasNext(); i++) {
+            Buffer candidate = candidates.next();
+            if (isPreferred.test(candidate)) {
+                candidates.remove();
+                return Attempt.succeeded(candidate);
+            }
+        }
+
+        return chooseVictim();
+    }
+
+    @Override
+    public List<Buffer> peekVictims(int maxCandidates) {
+        return unpinnedBuffers.values().stream().limit(maxCandidates).toList();
+    }
+
+    // Nothing here depends on the number of buffers
+    @Override
+    public void resize(int numBuffers) {
+    }
+}
@@ -0,0 +1,146 @@
+package buffer;
+
+import file.BlockId;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Chooses the unpinned buffer whose K-th most recent reference is the
+ * oldest. Blocks that have been referenced fewer than K times are treated as infinitely old and replaced first
+ * (least recently used among them), which is what keeps a one pass sequential scan from pushing out pages that are
+ * used over and over again.
+ *
+ * Reference history is kept per block, not per buffer, and outlives the block being replaced so a block that comes
+ * straight back is recognized as hot. To keep that history from growing forever, only the most recently referenced
+ * blocks are remembered.
+ */
+class LruKReplacementPolicy implements ReplacementPolicy {
+    private static final int HISTORY_SIZE_PER_BUFFER = 2;
+
+    private final int k;
+    private int historyCapacity;
+    private long referenceCounter = 0;
+
+    // Last K reference times of each block, most recent first. 0 means there was no reference
+    private final LinkedHashMap<BlockId, long[]> referenceHistory;
+
+    private final TreeSet<Candidate> unpinnedBuffers;
+    private final Map<Integer, Candidate> candidatesByFrame = new HashMap<>();
+
+    // The reference times are copied out of the history when the buffer is unpinned. They can't change while the
+    // buffer sits in the tree since referencing it requires pinning it first
+    private record Candidate(long kthReference, long lastReference, Buffer buffer) {}
+
+    LruKReplacementPolicy(int numBuffers, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-K needs K to be at least 1, got: " + k);
+
+        this.k = k;
+
+        this.historyCapacity = Math.max(numBuffers * HISTORY_SIZE_PER_BUFFER, 1);
+        this.referenceHistory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockId, long[]> eldest) {
+                return size() > historyCapacity;
+            }
+        };
+
+        this.unpinnedBuffers = new TreeSet<>(Comparator
+                .comparingLong(Candidate::kthReference)
+                .thenComparingLong(Candidate::lastReference)
+                .thenComparingInt(candidate -> candidate.buffer().getFrameId()));
+    }
+
+    @Override
+    public void bufferPinned(Buffer buffer) {
+        Candidate candidate = candidatesByFrame.remove(buffer.getFrameId());
+        if (candidate != null)
+            unpinnedBuffers.remove(candidate);
+
+        long[] references = referenceHistory.computeIfAbsent(buffer.getBlock(), block -> new long[k]);
+        System.arraycopy(references, 0, references, 1, k - 1);
+        references[0] = ++referenceCounter;
+    }
+
+    @Override
+    public void bufferUnpinned(Buffer buffer) {
+        // The history might have aged out while the buffer was pinned. Treat it as a block we know nothing about
+        long[] references = referenceHistory.getOrDefault(buffer.getBlock(), new long[k]);
+
+        addCandidate(new Candidate(references[k - 1], references[0], buffer));
+    }
+
+    /**
+     * The history of the block is left alone, so a read ahead never brings a block closer to K references. It only
+     * gets sorted as if it was just used, so it isn't the very first thing replaced before the scan gets to it
+     */
+    @Override
+    public void bufferLoaded(Buffer buffer) {
+        bufferRemoved(buffer);
+
+        long[] references = referenceHistory.getOrDefault(buffer.getBlock(), new long[k]);
+        addCandidate(new Candidate(references[k - 1], referenceCounter, buffer));
+    }
+
+    private void addCandidate(Candidate candidate) {
+        candidatesByFrame.put(candidate.buffer().getFrameId(), candidate);
+        unpinnedBuffers.add(candidate);
+    }
+
+    // The reference history is per block, so it stays around in case the block comes back
+    @Override
+    public void bufferRemoved(Buffer buffer) {
+        Candidate candidate = candidatesByFrame.remove(buffer.getFrameId());
+        if (candidate != null)
+            unpinnedBuffers.remove(candidate);
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim() {
+        Candidate victim = unpinnedBuffers.pollFirst();
+        if (victim == null)
+            return Attempt.failed();
+
+        candidatesByFrame.remove(victim.buffer().getFrameId());
+        return Attempt.succeeded(victim.buffer());
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim(Predicate<Buffer> isPreferred, int maxCandidates) {
+        Iterator<Candidate> candidates = unpinnedBuffers.iterator();
+        for (int i = 0; i < maxCandidates && candidates.hasNext(); i++) {
+            Candidate candidate = candidates.next();
+            if (isPreferred.test(candidate.buffer())) {
+                candidates.remove();
+                candidatesByFrame.remove(candidate.buffer().getFrameId());
+                return Attempt.succeeded(candidate.buffer());
+            }
+        }
+
+        return chooseVictim();
+    }
+
+    @Override
+    public List<Buffer> peekVictims(int maxCandidates) {
+        return unpinnedBuffers.stream().limit(maxCandidates).map(Candidate::buffer).toList();
+    }
+
+    // A smaller pool remembers fewer blocks. The least recently referenced ones get forgotten first
+    @Override
+    public void resize(int numBuffers) {
+        historyCapacity = Math.max(numBuffers * HISTORY_SIZE_PER_BUFFER, 1);
+
+        Iterator<BlockId> oldest = referenceHistory.keySet().iterator();
+        while (referenceHistory.size() > historyCapacity) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
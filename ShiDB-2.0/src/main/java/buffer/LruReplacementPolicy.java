@@ -0,0 +1,71 @@
+package buffer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Chooses the unpinned buffer whose contents were unpinned least recently. A LinkedHashMap keeps the unpinned
+ * buffers in the order they were unpinned, so the victim is always the first entry
+ */
+class LruReplacementPolicy implements ReplacementPolicy {
+    private final LinkedHashMap<Integer, Buffer> unpinnedBuffers = new LinkedHashMap<>();
+
+    @Override
+    public void bufferPinned(Buffer buffer) {
+        unpinnedBuffers.remove(buffer.getFrameId());
+    }
+
+    @Override
+    public void bufferUnpinned(Buffer buffer) {
+        unpinnedBuffers.put(buffer.getFrameId(), buffer);
+    }
+
+    // Nothing here keeps track of references, so this is the same as an unpin
+    @Override
+    public void bufferLoaded(Buffer buffer) {
+        bufferUnpinned(buffer);
+    }
+
+    @Override
+    public void bufferRemoved(Buffer buffer) {
+        unpinnedBuffers.remove(buffer.getFrameId());
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim() {
+        Iterator<Buffer> leastRecentlyUnpinned = unpinnedBuffers.values().iterator();
+        if (!leastRecentlyUnpinned.hasNext())
+            return Attempt.failed();
+
+        Buffer victim = leastRecentlyUnpinned.next();
+        leastRecentlyUnpinned.remove();
+
+        return Attempt.succeeded(victim);
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim(Predicate<Buffer> isPreferred, int maxCandidates) {
+        Iterator<Buffer> candidates = unpinnedBuffers.values().iterator();
+        for (int i = 0; i < maxCandidates && candidates.hasNext(); i++) {
+            Buffer candidate = candidates.next();
+            if (isPreferred.test(candidate)) {
+                candidates.remove();
+                return Attempt.succeeded(candidate);
+            }
+        }
+
+        return chooseVictim();
+    }
+
+    @Override
+    public List<Buffer> peekVictims(int maxCandidates) {
+        return unpinnedBuffers.values().stream().limit(maxCandidates).toList();
+    }
+
+    // Nothing here depends on the number of buffers
+    @Override
+    public void resize(int numBuffers) {
+    }
+}
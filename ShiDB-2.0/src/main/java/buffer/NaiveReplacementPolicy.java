@@ -0,0 +1,69 @@
+package buffer;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Chooses the first unpinned buffer in the pool. Unpinned buffers are kept sorted by frameId so we get the same
+ * answer as walking the pool from the front, without actually walking it
+ */
+class NaiveReplacementPolicy implements ReplacementPolicy {
+    private final TreeMap<Integer, Buffer> unpinnedBuffers = new TreeMap<>();
+
+    @Override
+    public void bufferPinned(Buffer buffer) {
+        unpinnedBuffers.remove(buffer.getFrameId());
+    }
+
+    @Override
+    public void bufferUnpinned(Buffer buffer) {
+        unpinnedBuffers.put(buffer.getFrameId(), buffer);
+    }
+
+    // Nothing here keeps track of references, so this is the same as an unpin
+    @Override
+    public void bufferLoaded(Buffer buffer) {
+        bufferUnpinned(buffer);
+    }
+
+    @Override
+    public void bufferRemoved(Buffer buffer) {
+        unpinnedBuffers.remove(buffer.getFrameId());
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim() {
+        Map.Entry<Integer, Buffer> firstUnpinned = unpinnedBuffers.pollFirstEntry();
+        if (firstUnpinned == null)
+            return Attempt.failed();
+
+        return Attempt.succeeded(firstUnpinned.getValue());
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim(Predicate<Buffer> isPreferred, int maxCandidates) {
+        Iterator<Buffer> candidates = unpinnedBuffers.values().iterator();
+        for (int i = 0; i < maxCandidates && candidates.hasNext(); i++) {
+            Buffer candidate = candidates.next();
+            if (isPreferred.test(candidate)) {
+                candidates.remove();
+                return Attempt.succeeded(candidate);
+            }
+        }
+
+        return chooseVictim();
+    }
+
+    @Override
+    public List<Buffer> peekVictims(int maxCandidates) {
+        return unpinnedBuffers.values().stream().limit(maxCandidates).toList();
+    }
+
+    // Nothing here depends on the number of buffers
+    @Override
+    public void resize(int numBuffers) {
+    }
+}
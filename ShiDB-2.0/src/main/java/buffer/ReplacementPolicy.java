@@ -0,0 +1,79 @@
+package buffer;
+
+import server.ConfigFetcher;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Decides which unpinned buffer gets its block replaced when the BufferMgr runs out of free buffers. The BufferMgr
+ * tells the policy about every pin and every buffer that becomes fully unpinned, and the policy keeps whatever
+ * bookkeeping it needs to pick a victim cheaply (O(1) or O(log n), never a walk over the whole pool).
+ *
+ * Policies are not thread safe. The BufferMgr only calls them while holding its own lock.
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called on every pin, after the buffer has been assigned to its block. The buffer is no longer a candidate
+     * for replacement until {@link #bufferUnpinned(Buffer)} is called for it.
+     */
+    void bufferPinned(Buffer buffer);
+
+    /**
+     * Called once a buffer has no pins left, making it a candidate for replacement
+     */
+    void bufferUnpinned(Buffer buffer);
+
+    /**
+     * Called when a block gets put in a buffer without anybody pinning it (prefetching, the warm up, or a victim that
+     * couldn't be written out and keeps its old block). The buffer becomes a candidate for replacement like after
+     * {@link #bufferUnpinned(Buffer)}, but the load doesn't count as a reference to the block, so a block that was only
+     * read ahead isn't treated as one that has been used
+     */
+    void bufferLoaded(Buffer buffer);
+
+    /**
+     * Called when an unpinned buffer gets taken for something else without going through {@link #chooseVictim()}
+     * (like a scan reusing a buffer of its own ring). Same as the buffer being chosen as a victim: it's no longer a
+     * candidate, and the next {@link #bufferPinned(Buffer)} for it is for a freshly read in block
+     */
+    void bufferRemoved(Buffer buffer);
+
+    /**
+     * Picks an unpinned buffer to replace and removes it from the set of candidates.
+     * @return The buffer to replace, or a failed attempt if every buffer is pinned
+     */
+    Attempt<Buffer> chooseVictim();
+
+    /**
+     * Same as {@link #chooseVictim()}, except it looks at the next maxCandidates buffers in replacement order and
+     * picks the first one isPreferred accepts. If none of them are, it falls back to the normal victim. The BufferMgr
+     * uses this to replace clean buffers before dirty ones, since a dirty victim has to be written out first
+     */
+    Attempt<Buffer> chooseVictim(Predicate<Buffer> isPreferred, int maxCandidates);
+
+    /**
+     * The next maxCandidates unpinned buffers, in the order they would be replaced. Doesn't change anything, so the
+     * background writer can clean the buffers that are about to be replaced before anybody has to wait on them
+     */
+    List<Buffer> peekVictims(int maxCandidates);
+
+    /**
+     * Called when the pool grows or shrinks, so policies that size anything off the number of buffers can adjust it.
+     * When shrinking, every frame past the new size has already gone through {@link #bufferRemoved(Buffer)}
+     */
+    void resize(int numBuffers);
+
+    static ReplacementPolicy create(BufferMgr.bufferSelectionStrategy strategy, int numBuffers) {
+        return switch (strategy) {
+            case NAIVE -> new NaiveReplacementPolicy();
+            case FIFO -> new FifoReplacementPolicy();
+            case LRU -> new LruReplacementPolicy();
+            case CLOCK -> new ClockReplacementPolicy(numBuffers, true);
+            case RING_BUFFER -> new ClockReplacementPolicy(numBuffers, false);
+            case LRU_K -> new LruKReplacementPolicy(numBuffers, ConfigFetcher.getBufferMgrLruK());
+            case TWO_QUEUE -> new TwoQueueReplacementPolicy(numBuffers);
+        };
+    }
+}
@@ -0,0 +1,186 @@
+package buffer;
+
+import file.BlockId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Blocks read in for the first time go into the A1in FIFO queue. If a block gets
+ * replaced out of A1in, we remember its id in the A1out ghost queue, and if it gets read in again while still
+ * remembered, it has proven itself hot and goes into the Am LRU queue instead. A1in is kept to about a quarter of the
+ * pool, so a big sequential scan only churns through A1in and leaves the pages in Am alone.
+ *
+ * Only unpinned buffers sit in the A1in/Am maps, but the size of A1in counts pinned buffers as well, since that is the
+ * number the 2Q paper bounds.
+ */
+class TwoQueueReplacementPolicy implements ReplacementPolicy {
+    private enum Queue { A1_IN, AM }
+
+    // A block that was loaded without a pin hasn't been referenced yet. It waits in A1in, and only on its first pin
+    // do we check whether A1out remembers it
+    private record ResidentBlock(BlockId block, Queue queue, long loadSequence, boolean isReferenced) {}
+
+    private int maxA1InSize;
+    private int maxA1OutSize;
+
+    private final Map<Integer, ResidentBlock> residentBlocks = new HashMap<>();
+    private final TreeMap<Long, Buffer> unpinnedA1In = new TreeMap<>();
+    private final LinkedHashMap<Integer, Buffer> unpinnedAm = new LinkedHashMap<>();
+    private final LinkedHashSet<BlockId> a1Out = new LinkedHashSet<>();
+
+    private int a1InSize = 0;
+    private long loadCounter = 0;
+
+    TwoQueueReplacementPolicy(int numBuffers) {
+        // The sizes recommended by the 2Q paper
+        maxA1InSize = Math.max(numBuffers / 4, 1);
+        maxA1OutSize = Math.max(numBuffers / 2, 1);
+    }
+
+    @Override
+    public void bufferPinned(Buffer buffer) {
+        int frameId = buffer.getFrameId();
+        ResidentBlock resident = residentBlocks.get(frameId);
+
+        if (resident != null && resident.block().equals(buffer.getBlock())) {
+            if (resident.queue() == Queue.A1_IN)
+                unpinnedA1In.remove(resident.loadSequence());
+            else
+                unpinnedAm.remove(frameId);
+
+            if (resident.isReferenced())
+                return;
+
+            // First pin of a block that was only loaded so far. It's in A1in, and moves to Am if A1out remembers it
+            a1InSize--;
+            residentBlocks.remove(frameId);
+        }
+
+        // The block was just read in. It only goes into Am if we remember replacing it out of A1in recently
+        Queue queue = a1Out.remove(buffer.getBlock()) ? Queue.AM : Queue.A1_IN;
+        if (queue == Queue.A1_IN)
+            a1InSize++;
+
+        // A1out is only trimmed here, after the lookup. The victim for this very pin was added to A1out just before
+        // this call, and trimming right away could forget the block we are pinning now
+        trimA1Out();
+
+        residentBlocks.put(frameId, new ResidentBlock(buffer.getBlock(), queue, loadCounter++, true));
+    }
+
+    @Override
+    public void bufferUnpinned(Buffer buffer) {
+        ResidentBlock resident = residentBlocks.get(buffer.getFrameId());
+
+        if (resident.queue() == Queue.A1_IN)
+            unpinnedA1In.put(resident.loadSequence(), buffer);
+        else
+            unpinnedAm.put(buffer.getFrameId(), buffer);
+    }
+
+    // Always goes into A1in, and A1out is left alone until the block actually gets pinned
+    @Override
+    public void bufferLoaded(Buffer buffer) {
+        bufferRemoved(buffer);
+
+        a1InSize++;
+        ResidentBlock resident = new ResidentBlock(buffer.getBlock(), Queue.A1_IN, loadCounter++, false);
+        residentBlocks.put(buffer.getFrameId(), resident);
+        bufferUnpinned(buffer);
+    }
+
+    @Override
+    public void bufferRemoved(Buffer buffer) {
+        ResidentBlock resident = residentBlocks.remove(buffer.getFrameId());
+        if (resident == null)
+            return;
+
+        if (resident.queue() == Queue.A1_IN) {
+            unpinnedA1In.remove(resident.loadSequence());
+            a1InSize--;
+        }
+        else {
+            unpinnedAm.remove(buffer.getFrameId());
+        }
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim() {
+        return chooseVictim(buffer -> true, 1);
+    }
+
+    @Override
+    public Attempt<Buffer> chooseVictim(Predicate<Buffer> isPreferred, int maxCandidates) {
+        if (shouldReplaceFromA1In()) {
+            if (unpinnedA1In.isEmpty())
+                return Attempt.failed();
+
+            Buffer victim = removeCandidate(unpinnedA1In.values(), isPreferred, maxCandidates);
+            ResidentBlock resident = residentBlocks.remove(victim.getFrameId());
+            a1InSize--;
+            a1Out.add(resident.block());
+
+            return Attempt.succeeded(victim);
+        }
+
+        Buffer victim = removeCandidate(unpinnedAm.values(), isPreferred, maxCandidates);
+        residentBlocks.remove(victim.getFrameId());
+
+        return Attempt.succeeded(victim);
+    }
+
+    @Override
+    public List<Buffer> peekVictims(int maxCandidates) {
+        List<Buffer> victims = new ArrayList<>(shouldReplaceFromA1In() ? unpinnedA1In.values() : unpinnedAm.values());
+        victims.addAll(shouldReplaceFromA1In() ? unpinnedAm.values() : unpinnedA1In.values());
+
+        return victims.subList(0, Math.min(maxCandidates, victims.size()));
+    }
+
+    private boolean shouldReplaceFromA1In() {
+        return (a1InSize > maxA1InSize && !unpinnedA1In.isEmpty()) || unpinnedAm.isEmpty();
+    }
+
+    // Takes the first preferred buffer out of the first maxCandidates in the queue, or the head of the queue otherwise
+    private static Buffer removeCandidate(Collection<Buffer> queue, Predicate<Buffer> isPreferred, int maxCandidates) {
+        Iterator<Buffer> candidates = queue.iterator();
+        for (int i = 0; i < maxCandidates && candidates.hasNext(); i++) {
+            Buffer candidate = candidates.next();
+            if (isPreferred.test(candidate)) {
+                candidates.remove();
+                return candidate;
+            }
+        }
+
+        Iterator<Buffer> head = queue.iterator();
+        Buffer victim = head.next();
+        head.remove();
+
+        return victim;
+    }
+
+    // If A1in ends up over its new size, it just gets replaced out of first until it's back under
+    @Override
+    public void resize(int numBuffers) {
+        maxA1InSize = Math.max(numBuffers / 4, 1);
+        maxA1OutSize = Math.max(numBuffers / 2, 1);
+        trimA1Out();
+    }
+
+    private void trimA1Out() {
+        Iterator<BlockId> oldest = a1Out.iterator();
+        while (a1Out.size() > maxA1OutSize) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
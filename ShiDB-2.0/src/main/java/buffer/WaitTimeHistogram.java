@@ -0,0 +1,100 @@
+package buffer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe histogram of how long pins had to wait for a buffer. Bucket i counts waits that took less than 2^i
+ * microseconds (and at least 2^(i-1)), with the last bucket catching everything longer. Power of two buckets are
+ * coarse, but recording is just a couple of adds, so it's cheap enough to leave on all the time
+ */
+public class WaitTimeHistogram {
+    private static final int NUM_BUCKETS = 32; // The last bucket starts at about 18 minutes. Plenty
+
+    private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+    private final LongAdder totalWaitMicros = new LongAdder();
+    private final LongAdder numTimeouts = new LongAdder();
+
+    public WaitTimeHistogram() {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    public void recordWait(long waitNanos) {
+        long waitMicros = Math.max(waitNanos / 1000, 0);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(waitMicros), NUM_BUCKETS - 1);
+
+        buckets[bucket].increment();
+        totalWaitMicros.add(waitMicros);
+    }
+
+    public void recordTimeout(long waitNanos) {
+        recordWait(waitNanos);
+        numTimeouts.increment();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+
+        totalWaitMicros.reset();
+        numTimeouts.reset();
+    }
+
+    public long getNumWaits() {
+        long numWaits = 0;
+        for (LongAdder bucket : buckets)
+            numWaits += bucket.sum();
+
+        return numWaits;
+    }
+
+    public long getNumTimeouts() {
+        return numTimeouts.sum();
+    }
+
+    public double getMeanWaitMicros() {
+        long numWaits = getNumWaits();
+        return numWaits == 0 ? 0 : (double) totalWaitMicros.sum() / numWaits;
+    }
+
+    public long[] getBucketCounts() {
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+
+        return counts;
+    }
+
+    /**
+     * Upper bound (exclusive) in microseconds of the bucket holding the given percentile. Since the buckets are
+     * powers of two, the real value is somewhere between half of this and this.
+     * @param percentile Between 0 and 100
+     * @return The upper bound of the percentile's bucket, or 0 if nothing has waited yet
+     */
+    public long getPercentileUpperBoundMicros(double percentile) {
+        long[] counts = getBucketCounts();
+        long numWaits = 0;
+        for (long count : counts)
+            numWaits += count;
+
+        if (numWaits == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(numWaits * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return 1L << i;
+        }
+
+        return 1L << (NUM_BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("waits=%d timeouts=%d mean=%.1fus p50<%dus p99<%dus",
+                getNumWaits(), getNumTimeouts(), getMeanWaitMicros(),
+                getPercentileUpperBoundMicros(50), getPercentileUpperBoundMicros(99));
+    }
+}
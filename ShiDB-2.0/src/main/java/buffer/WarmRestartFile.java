@@ -0,0 +1,75 @@
+package buffer;
+
+import file.BlockId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The list of blocks that were in the buffer pool, hottest first, so a restarted database can read them back in
+ * instead of refilling the pool one cache miss at a time. Only the BlockIds are saved, never the contents, so a stale
+ * list can't hurt anything. The worst it does is read in some blocks nobody needs anymore.
+ *
+ * The file is a count followed by (filename, block number) pairs. It is written to a temp file and then moved over the
+ * old one, so a crash in the middle of saving leaves the last complete list behind.
+ *
+ * Package private since only the BufferMgr should be reading or writing it
+ */
+class WarmRestartFile {
+    private final Path path;
+
+    WarmRestartFile(Path path) {
+        this.path = path;
+    }
+
+    boolean exists() {
+        return Files.exists(path);
+    }
+
+    void save(List<BlockId> blocks) {
+        Path partialPath = path.resolveSibling(path.getFileName() + ".partial");
+
+        try (DataOutputStream output =
+                     new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partialPath)))) {
+            output.writeInt(blocks.size());
+            for (BlockId block : blocks) {
+                output.writeUTF(block.filename());
+                output.writeInt(block.blockNum());
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot save the blocks of the buffer pool to: " + partialPath, e);
+        }
+
+        try {
+            Files.move(partialPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace the saved blocks of the buffer pool at: " + path, e);
+        }
+    }
+
+    // Hottest block first, same as they were saved
+    List<BlockId> load() {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int numBlocks = input.readInt();
+            List<BlockId> blocks = new ArrayList<>(numBlocks);
+            for (int i = 0; i < numBlocks; i++)
+                blocks.add(new BlockId(input.readUTF(), input.readInt()));
+
+            return blocks;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot load the saved blocks of the buffer pool from: " + path, e);
+        }
+    }
+}
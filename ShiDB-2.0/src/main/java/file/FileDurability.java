@@ -0,0 +1,13 @@
+package file;
+
+/**
+ * How hard the FileMgr works to get writes of a file onto the disk. Every file belongs to one of three classes (log,
+ * temp, data) and the config picks the durability of each class. Syncing is by far the most expensive part of a write,
+ * so it should only happen where something actually depends on it
+ */
+public enum FileDurability {
+    SYNC_EVERY_WRITE, // Every write is synced before it returns. What the FileMgr used to do for every file
+    SYNC_ON_FLUSH, // Writes are synced when the owner of the file asks for it (ex: LogMgr.flush())
+    SYNC_AT_CHECKPOINT, // Writes are synced only when a checkpoint asks for it. The log covers anything lost in between
+    NO_SYNC // Never synced. Only good for files nobody needs after a crash
+}
@@ -1,27 +1,38 @@
 package file;
 
 import lombok.Getter;
+import server.ConfigFetcher;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
-/** TODO:
- * I didn't realize that java.io.File was so outdate and modern libraries have replaced it. I need to refactor this
- * file to use the new java.nio.Files and java.nio.Path classes
+/**
+ * Reads and writes blocks with positional FileChannel reads/writes (pread/pwrite). Since nothing depends on a shared
+ * file pointer anymore, none of the reads/writes need to lock the FileMgr, and reads of different blocks (even of
+ * the same file) can happen at the same time. The only thing that still locks is append(), and only on the
+ * channel of the file being appended to, since finding the end of the file and writing past it has to be atomic.
  *
- * Maybe also need to replace RandomAccessFile with the FileChannel + SeekableByteChannel combo
+ * Files aren't synced on every write anymore. Each file gets the {@link FileDurability} of its class: the log, temp
+ * files (anything starting with "temp"), or data (everything else). The log is synced when the LogMgr flushes it, data
+ * files only at checkpoints (the write ahead log covers them until then), and temp files never.
  *
  * Reference:
  * https://grok.com/share/c2hhcmQtNA_1e6aa0a9-8fdf-469c-b655-831ea840b398
  */
 
 public class FileMgr {
-    private File dbDirectory;
+    @Getter
+    private Path dbDirectory;
 
     @Getter
     private int blocksize;
@@ -36,7 +47,20 @@ public class FileMgr {
     @Getter
     private ConcurrentHashMap<String, Integer> numFilesAppended;
 
-    private Map<String, RandomAccessFile> openFiles = new HashMap<>();
+    private AtomicLong forceCounter;
+
+    private ConcurrentHashMap<String, FileChannel> openFiles = new ConcurrentHashMap<>();
+
+    // Files written to since they were last synced. Only these need to be forced by flushFile() or checkpoint()
+    private Set<String> unsyncedFiles = ConcurrentHashMap.newKeySet();
+
+    // Forces of the same file take turns, see force()
+    private ConcurrentHashMap<String, Object> forceLocks = new ConcurrentHashMap<>();
+
+    private Set<String> logFiles = ConcurrentHashMap.newKeySet();
+    private FileDurability logDurability;
+    private FileDurability dataDurability;
+    private FileDurability tempDurability;
 
     public long getBlocksWriteCounter() {
         return blocksWriteCounter.get();
@@ -46,6 +70,10 @@ public class FileMgr {
         return blocksReadCounter.get();
     }
 
+    public long getForceCounter() {
+        return forceCounter.get();
+    }
+
     public int getNumAppends(String filename) {
         if (!numFilesAppended.containsKey(filename))
             throw new RuntimeException("Filename " + filename + " has no associated appends!");
@@ -54,81 +82,216 @@ public class FileMgr {
     }
 
     public FileMgr(File dbDirectory, int blocksize) throws IOException {
-        this.dbDirectory = dbDirectory;
+        this(dbDirectory, blocksize, FileDurability.valueOf(ConfigFetcher.getFileMgrLogDurability()),
+                FileDurability.valueOf(ConfigFetcher.getFileMgrDataDurability()),
+                FileDurability.valueOf(ConfigFetcher.getFileMgrTempDurability()));
+    }
+
+    public FileMgr(File dbDirectory, int blocksize, FileDurability logDurability, FileDurability dataDurability,
+                   FileDurability tempDurability) throws IOException {
+        this.dbDirectory = dbDirectory.toPath();
         this.blocksize = blocksize;
+        this.logDurability = logDurability;
+        this.dataDurability = dataDurability;
+        this.tempDurability = tempDurability;
 
         // Initialize the statistics for the file manager
         this.blocksReadCounter = new AtomicLong(0);
         this.blocksWriteCounter = new AtomicLong(0);
+        this.forceCounter = new AtomicLong(0);
         this.numFilesAppended = new ConcurrentHashMap<>();
 
-        isNew = !dbDirectory.exists();
+        isNew = !Files.exists(this.dbDirectory);
 
         // Create the database directory structure if it's brand new
         if (isNew)
-            if (!dbDirectory.mkdirs())
-                throw new IOException("Failed to create the needed database directory structure for a fresh database!");
+            Files.createDirectories(this.dbDirectory);
 
-        for (String filename : dbDirectory.list())
-            if (filename.startsWith("temp"))
-                new File(dbDirectory, filename).delete();
+        try (Stream<Path> dbFiles = Files.list(this.dbDirectory)) {
+            for (Path dbFile : dbFiles.toList())
+                if (dbFile.getFileName().toString().startsWith("temp"))
+                    Files.deleteIfExists(dbFile);
+        }
     }
 
-    public synchronized void readFromDiskToPage(BlockId block, Page page) {
+    public void readFromDiskToPage(BlockId block, Page page) {
         try {
-            RandomAccessFile accessFile = fetchFile(block.filename());
-            accessFile.seek(block.blockNum() * blocksize);
+            FileChannel channel = fetchFile(block.filename());
 
             // This will read the contents of the file into the page bytebuffer by reference
             // They say Java doesn't have pointers, but references are basically the same thing
-            accessFile.getChannel().read(page.getContents());
+            ByteBuffer contents = page.getContents();
+            long position = (long) block.blockNum() * blocksize;
+
+            // A positional read can come back short, so keep going until the page is full or we hit the end of file
+            while (contents.hasRemaining()) {
+                int bytesRead = channel.read(contents, position);
+                if (bytesRead < 0)
+                    break;
+
+                position += bytesRead;
+            }
 
             blocksReadCounter.incrementAndGet();
         }
-        catch (IOException e) {
+        catch (IOException | UncheckedIOException e) {
             throw new RuntimeException("Cannot read block: " + block);
         }
     }
 
+    /**
+     * Reads numBlocks consecutive blocks of a file with a single positional read, instead of one read per block.
+     * Meant for long sequential scans, like walking the log during recovery. Anything past the end of the file is
+     * left as is
+     * @param firstBlock The first (lowest) block to read
+     * @param numBlocks How many blocks to read, starting at firstBlock
+     * @param contents Where to read the blocks to. Needs room for all of them
+     */
+    public void readBlocksFromDisk(BlockId firstBlock, int numBlocks, ByteBuffer contents) {
+        if (contents.remaining() < numBlocks * blocksize)
+            throw new IllegalArgumentException("Buffer can't hold " + numBlocks + " blocks starting at " + firstBlock);
+
+        try {
+            FileChannel channel = fetchFile(firstBlock.filename());
+            ByteBuffer blocks = contents.slice(contents.position(), numBlocks * blocksize);
+            long position = (long) firstBlock.blockNum() * blocksize;
+
+            while (blocks.hasRemaining()) {
+                int bytesRead = channel.read(blocks, position);
+                if (bytesRead < 0)
+                    break;
+
+                position += bytesRead;
+            }
+
+            blocksReadCounter.addAndGet(numBlocks);
+        }
+        catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Cannot read " + numBlocks + " blocks starting at block: " + firstBlock);
+        }
+    }
+
     // Helper function for unit tests. Startup of the database impacts the read/write statistics. Sections like the
     // logMgr also perform reads and writes on startup, so we need this helper to reset the counters for unit tests
     public void resetFileMgrStatistics() {
         this.blocksReadCounter = new AtomicLong(0);
         this.blocksWriteCounter = new AtomicLong(0);
+        this.forceCounter = new AtomicLong(0);
         this.numFilesAppended = new ConcurrentHashMap<>();
     }
 
-    public synchronized void writePageToDisk(BlockId block, Page page) {
-        try {
-            RandomAccessFile accessFile = fetchFile(block.filename());
-            accessFile.seek(block.blockNum() * blocksize);
+    /**
+     * Marks a file as a log file so it gets the log durability instead of the data durability. Has to be called
+     * before the file is used for the first time, since the durability decides how the file gets opened
+     * @param filename Name of the log file
+     */
+    public void registerLogFile(String filename) {
+        if (openFiles.containsKey(filename) && !logFiles.contains(filename))
+            throw new IllegalStateException("Log file " + filename + " was already opened as a data file!");
+
+        logFiles.add(filename);
+    }
+
+    public FileDurability getDurability(String filename) {
+        if (logFiles.contains(filename))
+            return logDurability;
+
+        if (isTempFile(filename))
+            return tempDurability;
+
+        return dataDurability;
+    }
 
-            accessFile.getChannel().write(page.getContents());
+    protected boolean isTempFile(String filename) {
+        return filename.startsWith("temp");
+    }
+
+    protected boolean isDataFile(String filename) {
+        return !logFiles.contains(filename) && !isTempFile(filename);
+    }
+
+    // Lets subclasses that read blocks some other way keep the read statistics accurate
+    protected void recordBlockRead() {
+        blocksReadCounter.incrementAndGet();
+    }
+
+    /**
+     * Syncs everything written to the file so far, if the file's durability is SYNC_ON_FLUSH. The LogMgr calls this
+     * when it flushes, since commits depend on the log actually being on the disk
+     * @param filename The file to sync
+     */
+    public void flushFile(String filename) {
+        if (getDurability(filename) == FileDurability.SYNC_ON_FLUSH)
+            force(filename);
+    }
+
+    /**
+     * Syncs every file with writes that haven't been synced yet, unless the file is NO_SYNC (or was synced on
+     * write anyway). Checkpoints call this, since after a checkpoint the log no longer covers the data files.
+     */
+    public void checkpoint() {
+        for (String filename : unsyncedFiles) {
+            FileDurability durability = getDurability(filename);
+            if (durability == FileDurability.SYNC_ON_FLUSH || durability == FileDurability.SYNC_AT_CHECKPOINT)
+                force(filename);
+        }
+    }
+
+    /**
+     * Syncs the file if it has writes that haven't been synced yet. A caller that finds another force of the file
+     * already running waits for it to finish, since the write the caller depends on might only be covered by that
+     * force. Returning as soon as the file no longer looks unsynced would let a commit through before its log records
+     * are actually on the disk
+     */
+    private void force(String filename) {
+        synchronized (forceLocks.computeIfAbsent(filename, name -> new Object())) {
+            // Remove before forcing. If another write comes in while we force, it puts the file back for next time
+            if (!unsyncedFiles.remove(filename))
+                return;
+
+            try {
+                // Metadata needs to be synced too, since appends change the length of the file
+                fetchFile(filename).force(true);
+                forceCounter.incrementAndGet();
+            }
+            catch (IOException | UncheckedIOException e) {
+                unsyncedFiles.add(filename);
+                throw new RuntimeException("Cannot sync file: " + filename);
+            }
+        }
+    }
+
+    public void writePageToDisk(BlockId block, Page page) {
+        try {
+            FileChannel channel = fetchFile(block.filename());
+            writeFully(block.filename(), channel, page.getContents(), (long) block.blockNum() * blocksize);
 
             blocksWriteCounter.incrementAndGet();
         }
-        catch (IOException e) {
+        catch (IOException | UncheckedIOException e) {
             throw new RuntimeException("Cannot write block: " + block);
         }
     }
 
-    public synchronized BlockId append(String filename) {
-        int newBlockNum = numBlocksInFile(filename);
-        BlockId newBlock = new BlockId(filename, newBlockNum);
-
-        byte[] emptyByteArr = new byte[blocksize];
+    public BlockId append(String filename) {
+        BlockId newBlock = null;
 
         try {
-            RandomAccessFile accessFile = fetchFile(filename);
-            accessFile.seek(newBlock.blockNum() * blocksize);
-            accessFile.write(emptyByteArr);
+            FileChannel channel = fetchFile(filename);
+
+            // Two appends to the same file can't both see the same end of file, but appends to different files
+            // don't need to wait on each other
+            synchronized (channel) {
+                int newBlockNum = (int) (channel.size() / blocksize);
+                newBlock = new BlockId(filename, newBlockNum);
+
+                writeFully(filename, channel, ByteBuffer.allocate(blocksize), (long) newBlockNum * blocksize);
+            }
 
-            numFilesAppended.putIfAbsent(filename, 0);
-            int numAppends = numFilesAppended.get(filename);
-            numFilesAppended.put(filename, ++numAppends);
+            numFilesAppended.merge(filename, 1, Integer::sum);
         }
-        catch (IOException e) {
-            throw new RuntimeException("Cannot append block: " + newBlock);
+        catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Cannot append block: " + (newBlock != null ? newBlock : filename));
         }
 
         return newBlock;
@@ -136,10 +299,10 @@ public class FileMgr {
 
     public int numBlocksInFile(String filename) {
         try {
-            RandomAccessFile accessFile = fetchFile(filename);
-            return (int) (accessFile.length() / blocksize);
+            FileChannel channel = fetchFile(filename);
+            return (int) (channel.size() / blocksize);
         }
-        catch (IOException e) {
+        catch (IOException | UncheckedIOException e) {
             throw new RuntimeException("Cannot access file when checking file length: " + filename);
         }
     }
@@ -152,11 +315,15 @@ public class FileMgr {
      */
     public void deleteFile(String filename) {
         try {
-            // First need to ensure that the random access file is closed
-            RandomAccessFile accessFile = fetchFile(filename);
-            accessFile.close();
+            // First need to ensure that the file channel is closed
+            FileChannel channel = openFiles.remove(filename);
+            if (channel != null)
+                channel.close();
 
-            new File(filename).delete();
+            unsyncedFiles.remove(filename);
+            forceLocks.remove(filename);
+
+            Files.deleteIfExists(dbDirectory.resolve(filename));
         }
         catch (IOException e) {
             // Since this function is purely used to help with unit testing, don't care if deletion fails
@@ -164,22 +331,39 @@ public class FileMgr {
         }
     }
 
+    private void writeFully(String filename, FileChannel channel, ByteBuffer contents, long position)
+            throws IOException {
+        while (contents.hasRemaining())
+            position += channel.write(contents, position);
+
+        if (getDurability(filename) != FileDurability.SYNC_EVERY_WRITE)
+            unsyncedFiles.add(filename);
+    }
+
     /**
-     * Fetches a file and returns the file handler. If no such file exists, one will be created and returned
+     * Fetches a file and returns its channel. If no such file exists, one will be created and returned. Only one
+     * channel is ever opened per file, even if multiple threads ask for it at the same time
      * @param filename Name of the file to fetch/create
-     * @return accessFile File handler to use
-     * @throws IOException
+     * @return channel File channel to use
+     * @throws UncheckedIOException If the file couldn't be opened
      */
-    private RandomAccessFile fetchFile(String filename) throws IOException {
-        if (openFiles.containsKey(filename))
-            return openFiles.get(filename);
-
-        File dbTable = new File(dbDirectory, filename);
-
-        // RWS -> Read/Write/OS should not delay disk I/O to optimize disk performance
-        // S ensures that every write operation must be written immediately to the disk
-        RandomAccessFile accessFile = new RandomAccessFile(dbTable, "rws");
-        openFiles.put(filename, accessFile);
-        return accessFile;
+    protected FileChannel fetchFile(String filename) {
+        return openFiles.computeIfAbsent(filename, name -> {
+            try {
+                Path path = dbDirectory.resolve(name);
+
+                // SYNC -> OS should not delay disk I/O to optimize disk performance. Every write operation (contents
+                // and metadata) must be written immediately to the disk. Same as the old RandomAccessFile "rws" mode
+                if (getDurability(name) == FileDurability.SYNC_EVERY_WRITE)
+                    return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+
+                return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 }
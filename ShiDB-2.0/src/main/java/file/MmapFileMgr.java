@@ -0,0 +1,129 @@
+package file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FileMgr for read mostly databases (ex: reporting replicas) that memory maps its data files. Reading a block is a
+ * memcpy out of the mapping instead of a read system call, and {@link #getMappedPage(BlockId)} goes one step further
+ * and hands out a read only Page that points straight into the mapping, so reading a block copies nothing at all.
+ *
+ * The buffer pool doesn't use getMappedPage(). Its frames are arena pages that transactions write to, so loading a
+ * block into the pool still copies it out of the mapping. getMappedPage() is opt in, for readers that go around the
+ * buffer pool and don't need pins, latches or write ahead logging.
+ *
+ * The mappings are read only. Writes still go through the FileChannel like in the FileMgr, so a page can only reach
+ * the disk when the BufferMgr writes it, after the log has been flushed. If we wrote through the mapping, the OS
+ * could write dirty pages out whenever it felt like it and break write ahead logging. Since the file channel and
+ * the mapping share the OS page cache, the mapping still sees those writes right away.
+ *
+ * Only data files are mapped. The log and temp files are read/written just like in the FileMgr
+ */
+public class MmapFileMgr extends FileMgr {
+
+    // A single MappedByteBuffer can only address an int worth of bytes. Blocks past that get read like in the FileMgr
+    private static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+    // Mappings only cover the file as big as it was when we mapped it. Growing the file throws the mapping away,
+    // and the next read past the end of the old mapping remaps the file
+    private final ConcurrentHashMap<String, MappedByteBuffer> mappedFiles = new ConcurrentHashMap<>();
+
+    public MmapFileMgr(File dbDirectory, int blocksize) throws IOException {
+        super(dbDirectory, blocksize);
+    }
+
+    public MmapFileMgr(File dbDirectory, int blocksize, FileDurability logDurability, FileDurability dataDurability,
+                       FileDurability tempDurability) throws IOException {
+        super(dbDirectory, blocksize, logDurability, dataDurability, tempDurability);
+    }
+
+    @Override
+    public void readFromDiskToPage(BlockId block, Page page) {
+        if (!isDataFile(block.filename())) {
+            super.readFromDiskToPage(block, page);
+            return;
+        }
+
+        ByteBuffer mappedBlock = mapBlock(block);
+        if (mappedBlock == null) {
+            super.readFromDiskToPage(block, page);
+            return;
+        }
+
+        page.getContents().put(mappedBlock);
+        recordBlockRead();
+    }
+
+    /**
+     * Zero copy read of a block. The page returned is a read only view straight into the memory mapped file, so it
+     * sees any later writes to the block, and any attempt to modify it throws a ReadOnlyBufferException. Good for
+     * scans that only need to look at the data. The page isn't part of the buffer pool, so it isn't pinned or latched
+     * @param block The block to read. Has to be in a data file and has to exist already
+     * @return A read only page backed by the mapping
+     */
+    public Page getMappedPage(BlockId block) {
+        if (!isDataFile(block.filename()))
+            throw new IllegalArgumentException("Only data files are memory mapped, not: " + block.filename());
+
+        ByteBuffer mappedBlock = mapBlock(block);
+        if (mappedBlock == null)
+            throw new IllegalArgumentException("Cannot map block that is past the end of its file: " + block);
+
+        recordBlockRead();
+        return new Page(mappedBlock);
+    }
+
+    @Override
+    public BlockId append(String filename) {
+        BlockId newBlock = super.append(filename);
+        mappedFiles.remove(filename);
+        return newBlock;
+    }
+
+    @Override
+    public void deleteFile(String filename) {
+        mappedFiles.remove(filename);
+        super.deleteFile(filename);
+    }
+
+    /**
+     * Gets a read only slice of the mapping covering exactly one block, remapping the file first if the block is past
+     * the end of the current mapping.
+     * @return The slice, or null if the block is past the end of the file or too far in to be mapped
+     */
+    private ByteBuffer mapBlock(BlockId block) {
+        long position = (long) block.blockNum() * getBlocksize();
+        if (position + getBlocksize() > MAX_MAPPING_SIZE)
+            return null;
+
+        MappedByteBuffer mapping = mappedFiles.get(block.filename());
+        if (mapping == null || position + getBlocksize() > mapping.capacity())
+            mapping = remap(block.filename());
+
+        if (position + getBlocksize() > mapping.capacity())
+            return null;
+
+        // slice(index, length) doesn't touch the mapping's position, so many threads can slice the same mapping
+        return mapping.slice((int) position, getBlocksize());
+    }
+
+    private MappedByteBuffer remap(String filename) {
+        try {
+            FileChannel channel = fetchFile(filename);
+            long mappingSize = Math.min(channel.size(), MAX_MAPPING_SIZE);
+
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, mappingSize);
+            mappedFiles.put(filename, mapping);
+
+            return mapping;
+        }
+        catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Cannot memory map file: " + filename, e);
+        }
+    }
+}
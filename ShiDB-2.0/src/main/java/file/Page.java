@@ -11,6 +11,10 @@ import java.time.ZoneOffset;
 /**
  * A page holds a single block. This lets the block be read from the disk and modified in memory,
  * saving us from expensive I/O operations to read/write from the disk
+ *
+ * Every accessor reads and writes at an absolute offset and never moves the buffer's position, so any number of
+ * threads can read the same page at once (see the latches on Buffer). Scans and index lookups that look at a string
+ * in every row should use the compare/copy/view functions, which don't allocate anything per row like getString does
  */
 public class Page {
     private ByteBuffer byteBuffer;
@@ -35,6 +39,15 @@ public class Page {
         byteBuffer = ByteBuffer.wrap(byteArr);
     }
 
+    /**
+     * Constructor used to wrap a buffer somebody else owns, like a slice of a memory mapped file. Package private
+     * since only the file package should be handing out views into its buffers
+     * @param byteBuffer The buffer for the Page to wrap
+     */
+    Page(ByteBuffer byteBuffer) {
+        this.byteBuffer = byteBuffer;
+    }
+
     private void validateOffset(int offset) {
         if (offset >= 0 && offset < byteBuffer.limit())
             return;
@@ -81,9 +94,10 @@ public class Page {
         return byteBuffer.getInt(offset);
     }
 
-    // This check likely isn't needed as long as the buffer manager is implemented correctly
+    // This check likely isn't needed as long as the buffer manager is implemented correctly. Doesn't touch the
+    // buffer's position, so readers sharing the page don't trip over each other
     public void validateValueWillFit(int offset, int byteLength) {
-        if (byteBuffer.position(offset).remaining() >= byteLength)
+        if (byteLength >= 0 && byteBuffer.limit() - offset >= byteLength)
             return;
 
         String errMsg = String.format(
@@ -99,24 +113,49 @@ public class Page {
     }
 
     public byte[] getBytes(int offset) {
-        validateOffset(offset);
-
-        byteBuffer.position(offset);
-        int length = byteBuffer.getInt(offset);
+        // The length comes from the page, so a garbage length (like from an optimistic read that raced a writer) has
+        // to fail here instead of allocating whatever it says
+        int length = getValueLength(offset);
 
         byte[] byteArr = new byte[length];
-        byteBuffer.get(byteArr);
+        byteBuffer.get(offset + Integer.BYTES, byteArr);
 
         return byteArr;
     }
 
     public void setBytes(int offset, byte[] val) {
         validateOffset(offset);
-        validateValueWillFit(offset, val.length);
+        validateValueWillFit(offset, Integer.BYTES + val.length);
 
-        byteBuffer.position(offset);
-        byteBuffer.putInt(val.length);
-        byteBuffer.put(val);
+        byteBuffer.putInt(offset, val.length);
+        byteBuffer.put(offset + Integer.BYTES, val);
+    }
+
+    /**
+     * Same as getBytes(), but copies into a buffer the caller already has, so reading a field of every row doesn't
+     * allocate a new array for every row
+     * @param offset Where the length prefixed bytes start
+     * @param destination Where to copy the bytes to, starting at index 0
+     * @return How many bytes got copied
+     */
+    public int copyBytes(int offset, byte[] destination) {
+        int length = getValueLength(offset);
+        if (length > destination.length)
+            throw new IllegalArgumentException("Value at offset " + offset + " is " + length
+                    + " bytes, destination only holds " + destination.length);
+
+        byteBuffer.get(offset + Integer.BYTES, destination, 0, length);
+        return length;
+    }
+
+    // Length of the bytes or string at the offset, checked to fit in the page
+    private int getValueLength(int offset) {
+        validateOffset(offset);
+
+        int length = byteBuffer.getInt(offset);
+        validateValueWillFit(offset + Integer.BYTES, length);
+
+        return length;
     }
 
     public void setBoolean(int offset, boolean bool) {
@@ -173,6 +212,98 @@ public class Page {
         return new String(byteStr, CHARSET);
     }
 
+    /**
+     * Compares the string at the offset to the key without turning it into a String first. Same ordering as
+     * String.compareTo(), so it can stand in for getString(offset).compareTo(key) in scans and B-tree searches
+     * @return Negative if the string in the page comes before the key, 0 if they're equal, positive if it comes after
+     */
+    public int compareString(int offset, CharSequence key) {
+        int length = getValueLength(offset);
+        int start = offset + Integer.BYTES;
+
+        int commonLength = Math.min(length, key.length());
+        for (int i = 0; i < commonLength; i++) {
+            int difference = charAt(start + i) - key.charAt(i);
+            if (difference != 0)
+                return difference;
+        }
+
+        return length - key.length();
+    }
+
+    /**
+     * Compares the string at the offset to a string in another page (or another spot in this one), without copying
+     * either of them out. For comparing keys of two index records
+     */
+    public int compareString(int offset, Page other, int otherOffset) {
+        int length = getValueLength(offset);
+        int otherLength = other.getValueLength(otherOffset);
+        int start = offset + Integer.BYTES;
+        int otherStart = otherOffset + Integer.BYTES;
+
+        int commonLength = Math.min(length, otherLength);
+        for (int i = 0; i < commonLength; i++) {
+            int difference = charAt(start + i) - other.charAt(otherStart + i);
+            if (difference != 0)
+                return difference;
+        }
+
+        return length - otherLength;
+    }
+
+    /**
+     * The string at the offset as a CharSequence that reads straight out of the page, nothing gets copied or decoded.
+     * It's a view, so it shows whatever the page holds when it's read. Only use it while the page can't change
+     * underneath it (the buffer is pinned and latched), and call toString() on it to keep the value around
+     */
+    public CharSequence getStringView(int offset) {
+        return new PageCharSequence(offset + Integer.BYTES, getValueLength(offset));
+    }
+
+    // Each byte is one character since the charset is ASCII
+    private char charAt(int index) {
+        return (char) (byteBuffer.get(index) & 0xFF);
+    }
+
+    private class PageCharSequence implements CharSequence {
+        private final int start;
+        private final int length;
+
+        private PageCharSequence(int start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException("Index " + index + " is outside of a string of length " + length);
+
+            return Page.this.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int startIndex, int endIndex) {
+            if (startIndex < 0 || endIndex > length || startIndex > endIndex)
+                throw new IndexOutOfBoundsException("Range " + startIndex + " to " + endIndex
+                        + " is outside of a string of length " + length);
+
+            return new PageCharSequence(start + startIndex, endIndex - startIndex);
+        }
+
+        @Override
+        public String toString() {
+            byte[] byteStr = new byte[length];
+            byteBuffer.get(start, byteStr);
+            return new String(byteStr, CHARSET);
+        }
+    }
+
     public void setString(int offset, String val) {
         // No need to validate the offset since lower level functions will validate it
 
@@ -193,9 +324,21 @@ public class Page {
         return Integer.BYTES + (strLen * (int)bytesPerChar);
     }
 
-    // Package method needed by the FileMgr class
+    /**
+     * Copies a block that was read in some other way (like many blocks with one read) into the page
+     * @param blockContents Exactly one block's worth of bytes. Its position isn't changed
+     */
+    public void copyFrom(ByteBuffer blockContents) {
+        if (blockContents.remaining() != byteBuffer.capacity())
+            throw new IllegalArgumentException("Need " + byteBuffer.capacity() + " bytes to fill the page, got: "
+                    + blockContents.remaining());
+
+        byteBuffer.put(0, blockContents, blockContents.position(), blockContents.remaining());
+    }
+
+    // Package method needed by the FileMgr class. Reads and writes move the position of whatever buffer they're given,
+    // so they get their own view of the bytes and the page's buffer stays put for everybody else
     protected ByteBuffer getContents() {
-        byteBuffer.position(0);
-        return byteBuffer;
+        return byteBuffer.duplicate().clear();
     }
 }
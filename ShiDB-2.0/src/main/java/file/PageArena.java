@@ -0,0 +1,121 @@
+package file;
+
+import lombok.Getter;
+import server.ConfigFetcher;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One big chunk of off heap memory for all the pages of the buffer pool, instead of one direct ByteBuffer per page.
+ * Every page is a slice of it. Hundreds of thousands of tiny direct buffers each need their own Cleaner and their own
+ * native allocation, and the pool can't start until all of them are done. This is one allocation with one Cleaner.
+ *
+ * Java has no way to ask for huge pages for anonymous memory, but it can map a file, and a file on a hugetlbfs mount
+ * is backed by huge pages. So if a huge page directory is configured (and really is hugetlbfs), the arena is a mapping
+ * of a file there instead. The file is deleted right after it's mapped, the mapping keeps the memory around.
+ *
+ * The memory is freed by the garbage collector once the arena and every page sliced out of it are unreachable.
+ */
+public class PageArena {
+    private static final System.Logger LOGGER = System.getLogger(PageArena.class.getName());
+
+    // Huge pages on x86 are 2MB. A hugetlbfs mapping has to be a multiple of that
+    private static final long HUGE_PAGE_SIZE = 2L * 1024 * 1024;
+    private static final long OS_PAGE_SIZE = 4096;
+
+    @Getter
+    private final int numPages;
+
+    @Getter
+    private final int blocksize;
+
+    @Getter
+    private final boolean isHugePageBacked;
+
+    private final MemorySegment segment;
+
+    public PageArena(int numPages, int blocksize) {
+        this(numPages, blocksize, ConfigFetcher.getBufferMgrHugePageDirectory());
+    }
+
+    /**
+     * @param numPages How many pages the arena holds
+     * @param blocksize Size of each page
+     * @param hugePageDirectory Directory on a hugetlbfs mount to map the arena from. Empty means don't use huge pages
+     */
+    public PageArena(int numPages, int blocksize, String hugePageDirectory) {
+        this.numPages = numPages;
+        this.blocksize = blocksize;
+
+        long arenaSize = (long) numPages * blocksize;
+        Arena arena = Arena.ofAuto();
+
+        MemorySegment arenaSegment = MemorySegment.NULL;
+        boolean isMapped = false;
+        if (canUseHugePages(hugePageDirectory)) {
+            try {
+                arenaSegment = mapHugePages(Path.of(hugePageDirectory), arenaSize, arena);
+                isMapped = true;
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.log(System.Logger.Level.WARNING,
+                        "Not using huge pages, couldn't map them from " + hugePageDirectory, e);
+            }
+        }
+
+        this.isHugePageBacked = isMapped;
+        this.segment = isMapped ? arenaSegment : arena.allocate(arenaSize, OS_PAGE_SIZE);
+    }
+
+    /**
+     * Creates the Page for one slot of the arena. The page reads and writes the arena's memory directly, so creating
+     * two pages for the same slot gives two views of the same bytes
+     * @param pageIndex Which slot of the arena, starting from 0
+     */
+    public Page newPage(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= numPages)
+            throw new IndexOutOfBoundsException(
+                    "Page " + pageIndex + " is outside of an arena of " + numPages + " pages");
+
+        return new Page(segment.asSlice((long) pageIndex * blocksize, blocksize).asByteBuffer());
+    }
+
+    // A file anywhere other than hugetlbfs would be written to disk, so only map from there
+    private static boolean canUseHugePages(String hugePageDirectory) {
+        if (hugePageDirectory.isEmpty())
+            return false;
+
+        try {
+            if (Files.getFileStore(Path.of(hugePageDirectory)).type().equals("hugetlbfs"))
+                return true;
+
+            LOGGER.log(System.Logger.Level.WARNING,
+                    "Not using huge pages, " + hugePageDirectory + " isn't on a hugetlbfs mount");
+        }
+        catch (IOException e) {
+            LOGGER.log(System.Logger.Level.WARNING,
+                    "Not using huge pages, couldn't find the mount of " + hugePageDirectory, e);
+        }
+
+        return false;
+    }
+
+    private static MemorySegment mapHugePages(Path hugePageDirectory, long arenaSize, Arena arena)
+            throws IOException {
+        long mappingSize = Math.max((arenaSize + HUGE_PAGE_SIZE - 1) / HUGE_PAGE_SIZE, 1) * HUGE_PAGE_SIZE;
+        Path backingFile = Files.createTempFile(hugePageDirectory, "shidb-buffer-pool", null);
+
+        try (FileChannel channel = FileChannel.open(backingFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, mappingSize, arena);
+        }
+        finally {
+            Files.deleteIfExists(backingFile);
+        }
+    }
+}
@@ -2,47 +2,144 @@ package log;
 
 import file.BlockId;
 import file.FileMgr;
-import file.Page;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
-// This class is package private since only the LogMgr class should interact with it.
-class LogIterator implements Iterator<byte[]> {
-    private FileMgr fileMgr;
-    private BlockId block;
-    private Page page;
-    private int currentPosition;
-    private int boundary;
+/**
+ * Walks the log from the newest record to the oldest. The records still in the LogMgr's memory come first, then the
+ * iterator works backwards through the file a chunk of blocks at a time. Each chunk is a single positional read, done
+ * and decoded on a background thread while the records of the previous chunk are handed out, so a long scan (like
+ * recovery) doesn't wait on one block read after another.
+ *
+ * Every chunk is read into its own buffer, so records can be handed out as slices of it without copying. The record
+ * mapper decides whether a record is handed out as a slice or copied into a byte[].
+ *
+ * This class is package private since only the LogMgr class should interact with it.
+ */
+class LogIterator<T> implements Iterator<T> {
+
+    // Reads are blocking I/O, which is exactly what virtual threads are good at
+    private static final ExecutorService READ_AHEAD_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final FileMgr fileMgr;
+    private final String filename;
+    private final int readAheadBlocks;
+    private final Function<ByteBuffer, T> recordMapper;
+
+    private Iterator<T> currentChunk;
+    private CompletableFuture<List<T>> nextChunk;
+    private int nextBlockNum; // Newest block that hasn't been requested yet, -1 when there is nothing left to read
+
+    /**
+     * @param tailPages Copies of the pages not written to the file yet, newest first
+     * @param newestBlockNum The newest block to read from the file, right before the oldest of the tailPages
+     * @param readAheadBlocks How many blocks to read at once
+     * @param recordMapper Turns a slice of the chunk holding one record into whatever the iterator hands out
+     */
+    LogIterator(FileMgr fileMgr, String filename, List<ByteBuffer> tailPages, int newestBlockNum,
+                int readAheadBlocks, Function<ByteBuffer, T> recordMapper) {
+        if (readAheadBlocks < 1)
+            throw new IllegalArgumentException("Need to read at least 1 block at a time, got: " + readAheadBlocks);
 
-    public LogIterator(FileMgr fileMgr, BlockId block) {
         this.fileMgr = fileMgr;
-        this.block = block;
-        byte[] byteArr = new byte[fileMgr.getBlocksize()];
-        page = new Page(byteArr);
+        this.filename = filename;
+        this.readAheadBlocks = readAheadBlocks;
+        this.recordMapper = recordMapper;
+        this.nextBlockNum = newestBlockNum;
+
+        // Start reading the file right away, while the in memory pages get decoded
+        startReadAhead();
+
+        List<T> tailRecords = new ArrayList<>();
+        for (ByteBuffer tailPage : tailPages)
+            decodeBlock(tailPage, 0, tailRecords);
 
-        moveToBlock(block);
+        currentChunk = tailRecords.iterator();
     }
 
     public boolean hasNext() {
-        return currentPosition < fileMgr.getBlocksize() || block.blockNum() > 0;
+        while (!currentChunk.hasNext()) {
+            if (nextChunk == null)
+                return false;
+
+            currentChunk = awaitNextChunk().iterator();
+            startReadAhead();
+        }
+
+        return true;
+    }
+
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException("Already at the oldest record in the log!");
+
+        return currentChunk.next();
     }
 
-    public byte[] next() {
-        // The Log iterator goes backwards in time, hence why we decrement the block number instead of increment
-        if (currentPosition == fileMgr.getBlocksize()) {
-            block = new BlockId(block.filename(), block.blockNum() - 1);
-            moveToBlock(block);
+    // The log iterator goes backwards in time, hence why the chunks go down in block numbers
+    private void startReadAhead() {
+        if (nextBlockNum < 0) {
+            nextChunk = null;
+            return;
         }
 
-        byte[] record = page.getBytes((currentPosition));
-        currentPosition += Integer.BYTES + record.length;
+        int firstBlockNum = Math.max(0, nextBlockNum - readAheadBlocks + 1);
+        int numBlocks = nextBlockNum - firstBlockNum + 1;
+        nextBlockNum = firstBlockNum - 1;
 
-        return record;
+        nextChunk = CompletableFuture.supplyAsync(() -> readChunk(firstBlockNum, numBlocks), READ_AHEAD_EXECUTOR);
     }
 
-    public void moveToBlock(BlockId block) {
-        fileMgr.readFromDiskToPage(block, page);
-        boundary = page.getInt(0);
-        currentPosition = boundary;
+    private List<T> awaitNextChunk() {
+        try {
+            return nextChunk.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+
+            throw e;
+        }
+    }
+
+    private List<T> readChunk(int firstBlockNum, int numBlocks) {
+        int blocksize = fileMgr.getBlocksize();
+        ByteBuffer chunk = ByteBuffer.allocate(numBlocks * blocksize);
+        fileMgr.readBlocksFromDisk(new BlockId(filename, firstBlockNum), numBlocks, chunk);
+
+        List<T> records = new ArrayList<>();
+        for (int i = numBlocks - 1; i >= 0; i--)
+            decodeBlock(chunk, i * blocksize, records);
+
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Records are placed right to left in a block, and the first int of the block is where the newest one starts. So
+     * going left to right from there gives the records of the block from newest to oldest
+     */
+    private void decodeBlock(ByteBuffer chunk, int blockStart, List<T> records) {
+        int blocksize = fileMgr.getBlocksize();
+        int currentPosition = chunk.getInt(blockStart);
+
+        // Every block the LogMgr writes has a boundary, so anything else is a block that never got written
+        if (currentPosition < Integer.BYTES)
+            return;
+
+        while (currentPosition < blocksize) {
+            int recordLength = chunk.getInt(blockStart + currentPosition);
+            records.add(recordMapper.apply(chunk.slice(blockStart + currentPosition + Integer.BYTES, recordLength)));
+            currentPosition += Integer.BYTES + recordLength;
+        }
     }
 }
@@ -5,89 +5,513 @@ import file.FileMgr;
 import file.Page;
 import lombok.Getter;
 import lombok.Setter;
+import server.ConfigFetcher;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
-public class LogMgr {
+/**
+ * The tail of the log is a ring of log pages. Appenders only ever fill the active page. When it fills up, it gets
+ * sealed, and the appender moves on to the next page in the ring and keeps going. The next block number is just
+ * computed in memory, so appending never touches the disk. A background log writer thread writes the sealed pages out,
+ * and is the only thing that writes to the log file. An appender only has to wait if the writer falls a whole ring of
+ * pages behind.
+ *
+ * flush(lsn) just asks the writer to make the lsn durable and waits for the durable LSN to get there. The writer does
+ * group commit: it can wait a short window for other committers to show up, then writes the sealed pages plus a copy
+ * of the active page and syncs the file once for all of them. Anybody who asks while a write is happening gets picked
+ * up by the next one.
+ *
+ * An LSN is where its record sits in the log file: the block number times the block size, plus how far the record
+ * starts from the end of its block. Records fill each block from the end, so LSNs still go up by record, they keep
+ * going up across restarts, and readAt(lsn) and iteratorFrom(lsn) can go straight to a record instead of scanning
+ * for it.
+ */
+public class LogMgr implements AutoCloseable {
 
     private FileMgr fileMgr;
-    private Page logPage;
-    private BlockId currentBlock;
+
+    // Sealed pages are always the ones right behind the active page in the ring, oldest first
+    private final LogPage[] logPages;
+    private int activePageIndex;
+    private int numSealedPages = 0;
 
     // The book originally had the LSN be an int, but this would be problematic in a real database due to
     // integer overflow. It may bite me in the ass later, but I'm changing this to a long to avoid that
     // Surely we can't easily overlflow a 64-bit number, right? ...... Right?
+    // Now that it's a byte position in the log file it's even more important, an int would only cover 2 GB of log
     private long latestLSN = 0; // LSN -> Log Sequence Number
-    private long lastSavedLSN = 0;
+    private long lastSavedLSN = 0; // Highest LSN that is written AND synced
+    private long requestedLSN = 0; // Highest LSN somebody is waiting on in flush()
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writerWakeup = lock.newCondition();
+    private final Condition logWritten = lock.newCondition();
 
+    private int numFlushWaiters = 0;
+    private final long groupCommitWindowNanos;
+    private final int groupCommitMaxBatchSize;
+
+    @Getter @Setter
+    private int readAheadBlocks = ConfigFetcher.getLogMgrReadAheadBlocks();
+
+    private final Thread logWriter;
+    private boolean isClosed = false;
+    private RuntimeException logWriterFailure = null;
+
+    // Can't autogenerate lombok getter function because it doesn't call AtomicLong.get()
+    private AtomicLong flushRequestCounter = new AtomicLong(0);
+    private AtomicLong logWriteCounter = new AtomicLong(0);
 
     @Getter @Setter
     private String logFile;
 
+    // One slot in the ring. The page wraps bytes so the active page can be copied for a flush
+    private static class LogPage {
+        private final byte[] bytes;
+        private final Page page;
+        private BlockId block;
+
+        private LogPage(int blocksize) {
+            this.bytes = new byte[blocksize];
+            this.page = new Page(bytes);
+        }
+    }
+
     public LogMgr(FileMgr fileMgr, String logfile) {
+        this(fileMgr, logfile, ConfigFetcher.getLogMgrGroupCommitWindowMicros(),
+                ConfigFetcher.getLogMgrGroupCommitMaxBatchSize(), ConfigFetcher.getLogMgrNumLogPages());
+    }
+
+    public LogMgr(FileMgr fileMgr, String logfile, long groupCommitWindowMicros, int groupCommitMaxBatchSize) {
+        this(fileMgr, logfile, groupCommitWindowMicros, groupCommitMaxBatchSize, ConfigFetcher.getLogMgrNumLogPages());
+    }
+
+    public LogMgr(FileMgr fileMgr, String logfile, long groupCommitWindowMicros, int groupCommitMaxBatchSize,
+                  int numLogPages) {
+        // Need somewhere to append to while the writer writes the previous page out
+        if (numLogPages < 2)
+            throw new IllegalArgumentException("The log needs at least 2 log pages, got: " + numLogPages);
+
         this.fileMgr = fileMgr;
         this.logFile = logfile;
+        this.groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitWindowMicros);
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+        fileMgr.registerLogFile(logfile);
 
-        byte[] byteArr = new byte[fileMgr.getBlocksize()];
-        logPage = new Page(byteArr);
+        logPages = new LogPage[numLogPages];
+        for (int i = 0; i < numLogPages; i++)
+            logPages[i] = new LogPage(fileMgr.getBlocksize());
+
+        activePageIndex = 0;
+        LogPage activePage = logPages[activePageIndex];
         int numBlocksInLogFile = fileMgr.numBlocksInFile(logfile);
         if (numBlocksInLogFile == 0) {
-            currentBlock = appendNewBlock();
+            // Only time the log gets written outside of the writer thread, since it isn't running yet
+            activePage.block = fileMgr.append(logfile);
+            activePage.page.setInt(0, fileMgr.getBlocksize());
+            fileMgr.writePageToDisk(activePage.block, activePage.page);
         }
         else {
-            currentBlock = new BlockId(logfile, numBlocksInLogFile - 1);
-            fileMgr.readFromDiskToPage(currentBlock, logPage);
+            activePage.block = new BlockId(logfile, numBlocksInLogFile - 1);
+            fileMgr.readFromDiskToPage(activePage.block, activePage.page);
         }
+
+        // Everything in the file is already on disk, so the LSNs pick up right where the last run stopped
+        latestLSN = toLSN(activePage.block.blockNum(), activePage.page.getInt(0));
+        lastSavedLSN = latestLSN;
+
+        logWriter = new Thread(this::runLogWriter, "shidb-log-writer-" + logfile);
+        logWriter.setDaemon(true);
+        logWriter.start();
+    }
+
+    // Number of times somebody asked for the log to be on disk
+    public long getFlushRequestCounter() {
+        return flushRequestCounter.get();
+    }
+
+    // Number of times a log page actually got written. With group commit this is lower than the flush requests
+    public long getLogWriteCounter() {
+        return logWriteCounter.get();
     }
 
     public void flush() {
-        fileMgr.writePageToDisk(currentBlock, logPage);
-        lastSavedLSN = latestLSN;
+        long lsn;
+
+        lock.lock();
+        try {
+            lsn = latestLSN;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        flush(lsn);
     }
 
+    /**
+     * Makes sure every log record up to and including the lsn is on the disk. Returns right away if it already is.
+     * Otherwise waits for the log writer to get there
+     * @param lsn The LSN of the latest record that needs to be on disk
+     */
     public void flush(long lsn) {
-        if (lsn >= lastSavedLSN)
-            flush();
+        lock.lock();
+        try {
+            if (lsn <= lastSavedLSN)
+                return;
+
+            checkLogWriter();
+            flushRequestCounter.incrementAndGet();
+            requestedLSN = Math.max(requestedLSN, lsn);
+            numFlushWaiters++;
+            writerWakeup.signal();
+
+            try {
+                while (lsn > lastSavedLSN) {
+                    logWritten.awaitUninterruptibly();
+                    checkLogWriter();
+                }
+            }
+            finally {
+                numFlushWaiters--;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
+    /**
+     * Iterates from the newest record to the oldest. Records that haven't been written yet are included, so there is
+     * no need to flush first
+     */
     public Iterator<byte[]> iterator() {
-        // Flush first to ensure that all logs to iterate through are on the disk
-        flush();
-        return new LogIterator(fileMgr, currentBlock);
+        return newLogIterator(record -> {
+            byte[] recordBytes = new byte[record.remaining()];
+            record.get(recordBytes);
+            return recordBytes;
+        });
+    }
+
+    /**
+     * Same as iterator(), except every record is a read only slice of the chunk of the log it was read with, instead
+     * of a copy. Saves an allocation and a copy per record for long scans like recovery
+     */
+    public Iterator<ByteBuffer> bufferIterator() {
+        return newLogIterator(ByteBuffer::asReadOnlyBuffer);
+    }
+
+    /**
+     * Reads the record with the given LSN. The LSN says which block the record is in and where, so this is at most
+     * one block read, and no read at all if the block is still in memory
+     * @param lsn The LSN appendRecord() returned for the record
+     */
+    public byte[] readAt(long lsn) {
+        ByteBuffer block = copyBlocksFrom(lsn, 1).getFirst();
+        int recordPosition = toRecordPosition(lsn);
+        int recordLength = block.getInt(recordPosition);
+
+        byte[] recordBytes = new byte[recordLength];
+        block.get(recordPosition + Integer.BYTES, recordBytes);
+        return recordBytes;
+    }
+
+    /**
+     * Same as iterator(), except it starts at the record with the given LSN instead of the newest one, and goes back
+     * to the oldest record from there
+     * @param lsn The LSN appendRecord() returned for the record to start at
+     */
+    public Iterator<byte[]> iteratorFrom(long lsn) {
+        List<ByteBuffer> tailPages = copyBlocksFrom(lsn, Integer.MAX_VALUE);
+
+        // The block is our own copy, so moving its boundary to the record makes the iterator start there
+        tailPages.getFirst().putInt(0, toRecordPosition(lsn));
+
+        int newestWrittenBlockNum = toBlockNum(lsn) - tailPages.size();
+        return new LogIterator<>(fileMgr, logFile, tailPages, newestWrittenBlockNum, readAheadBlocks,
+                record -> {
+                    byte[] recordBytes = new byte[record.remaining()];
+                    record.get(recordBytes);
+                    return recordBytes;
+                });
+    }
+
+    /**
+     * Gets copies of the block the LSN points into and of up to maxBlocks - 1 blocks before it that are still in
+     * memory, newest first. Pages in the ring haven't necessarily been written yet, so those have to come from memory.
+     * If the LSN's block isn't in the ring it comes from the file, and so does everything before it
+     */
+    private List<ByteBuffer> copyBlocksFrom(long lsn, int maxBlocks) {
+        int blockNum = toBlockNum(lsn);
+        List<ByteBuffer> blocks = new ArrayList<>();
+
+        lock.lock();
+        try {
+            if (lsn <= 0 || lsn > latestLSN)
+                throw new IllegalArgumentException("There is no log record with LSN " + lsn + ", the latest is "
+                        + latestLSN);
+
+            for (int i = 0; i <= numSealedPages && blocks.size() < maxBlocks; i++) {
+                LogPage logPage = logPages[Math.floorMod(activePageIndex - i, logPages.length)];
+                if (logPage.block.blockNum() <= blockNum)
+                    blocks.add(ByteBuffer.wrap(logPage.bytes.clone()));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // Anything older than the ring has already been written by the log writer and never changes again
+        if (blocks.isEmpty()) {
+            byte[] blockBytes = new byte[fileMgr.getBlocksize()];
+            fileMgr.readFromDiskToPage(new BlockId(logFile, blockNum), new Page(blockBytes));
+            blocks.add(ByteBuffer.wrap(blockBytes));
+        }
+
+        if (!isRecordStart(blocks.getFirst(), toRecordPosition(lsn)))
+            throw new IllegalArgumentException("There is no log record with LSN " + lsn + "!");
+
+        return blocks;
+    }
+
+    /**
+     * Whether a record of the block starts at the position. The records are between the boundary and the end of the
+     * block, one right after the other, so this walks them from the boundary. Anything else (in front of the boundary,
+     * or the middle of some record) would have its bytes read as a length, and that length would be garbage
+     */
+    private boolean isRecordStart(ByteBuffer block, int recordPosition) {
+        int position = block.getInt(0);
+        while (position < recordPosition) {
+            if (position > block.capacity() - Integer.BYTES)
+                return false;
+
+            int recordLength = block.getInt(position);
+            if (recordLength < 0 || recordLength > block.capacity() - position - Integer.BYTES)
+                return false;
+
+            position += Integer.BYTES + recordLength;
+        }
+
+        return position == recordPosition;
     }
 
-    public BlockId appendNewBlock() {
-        BlockId block = fileMgr.append(logFile);
-        logPage.setInt(0, fileMgr.getBlocksize());
-        fileMgr.writePageToDisk(block, logPage);
+    private long toLSN(int blockNum, int recordPosition) {
+        int blocksize = fileMgr.getBlocksize();
+        return (long) blockNum * blocksize + (blocksize - recordPosition);
+    }
+
+    // The record position is never the very end of the block, so LSN - 1 is always still inside the record's block
+    private int toBlockNum(long lsn) {
+        return (int) ((lsn - 1) / fileMgr.getBlocksize());
+    }
 
-        return block;
+    private int toRecordPosition(long lsn) {
+        int blocksize = fileMgr.getBlocksize();
+        return (int) (blocksize - (lsn - (long) toBlockNum(lsn) * blocksize));
+    }
+
+    private <T> LogIterator<T> newLogIterator(Function<ByteBuffer, T> recordMapper) {
+        lock.lock();
+        try {
+            // Everything older than the oldest page still in memory has already been written by the log writer
+            List<ByteBuffer> tailPages = new ArrayList<>(numSealedPages + 1);
+            for (int i = 0; i <= numSealedPages; i++) {
+                LogPage logPage = logPages[Math.floorMod(activePageIndex - i, logPages.length)];
+                tailPages.add(ByteBuffer.wrap(logPage.bytes.clone()));
+            }
+
+            int oldestPageIndex = Math.floorMod(activePageIndex - numSealedPages, logPages.length);
+            int newestWrittenBlockNum = logPages[oldestPageIndex].block.blockNum() - 1;
+
+            return new LogIterator<>(fileMgr, logFile, tailPages, newestWrittenBlockNum, readAheadBlocks,
+                    recordMapper);
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Places the log records in the page from right to left instead of normal. This allows the LogIterator class
      * to read records from newest to oldest (reverse order).
      */
-    public synchronized long appendRecord(byte[] logRecord) {
-        // Since we read right to left in the log page, the var boundary contains the current offset location
-        // we are evaluating in the record (most recently added record). We store this offset as the first 4 bytes
-        // (integer size) of the page so we know where to start
-        int boundary = logPage.getInt(0);
-        int recordSize = logRecord.length;
-        int bytesNeeded = recordSize + Integer.BYTES;
-
-        // If the record doesn't fit, move it to a new block
-        if (boundary - bytesNeeded < Integer.BYTES) {
-            flush();
-            currentBlock = appendNewBlock();
-            boundary = logPage.getInt(0);
-        }
-
-        int recordPosition = boundary - bytesNeeded;
-        logPage.setBytes(recordPosition, logRecord);
-        logPage.setInt(0, recordPosition);
-        latestLSN++;
-
-        return latestLSN;
+    public long appendRecord(byte[] logRecord) {
+        lock.lock();
+        try {
+            Page logPage = logPages[activePageIndex].page;
+
+            // Since we read right to left in the log page, the var boundary contains the current offset location
+            // we are evaluating in the record (most recently added record). We store this offset as the first 4 bytes
+            // (integer size) of the page so we know where to start
+            int boundary = logPage.getInt(0);
+            int recordSize = logRecord.length;
+            int bytesNeeded = recordSize + Integer.BYTES;
+
+            // If the record doesn't fit, move it to a new block
+            if (boundary - bytesNeeded < Integer.BYTES) {
+                moveToNextLogPage();
+                logPage = logPages[activePageIndex].page;
+                boundary = logPage.getInt(0);
+            }
+
+            int recordPosition = boundary - bytesNeeded;
+            logPage.setBytes(recordPosition, logRecord);
+            logPage.setInt(0, recordPosition);
+            latestLSN = toLSN(logPages[activePageIndex].block.blockNum(), recordPosition);
+
+            return latestLSN;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes out everything appended so far and stops the log writer. Appending after this is an error
+     */
+    @Override
+    public void close() {
+        flush();
+
+        lock.lock();
+        try {
+            isClosed = true;
+            writerWakeup.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        try {
+            logWriter.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Seals the active page for the writer and starts the next block in the next page of the ring. Lock must be held
+    private void moveToNextLogPage() {
+        checkLogWriter();
+
+        // The next page in the ring is only reusable once the writer has written it out
+        while (numSealedPages == logPages.length - 1) {
+            logWritten.awaitUninterruptibly();
+            checkLogWriter();
+        }
+
+        BlockId sealedBlock = logPages[activePageIndex].block;
+        numSealedPages++;
+        writerWakeup.signal();
+
+        activePageIndex = (activePageIndex + 1) % logPages.length;
+        LogPage nextPage = logPages[activePageIndex];
+        nextPage.block = new BlockId(logFile, sealedBlock.blockNum() + 1);
+        nextPage.page.setInt(0, fileMgr.getBlocksize());
+    }
+
+    private void checkLogWriter() {
+        if (logWriterFailure != null)
+            throw new RuntimeException("The log writer failed, the log can't be written anymore!", logWriterFailure);
+
+        if (isClosed)
+            throw new IllegalStateException("Log " + logFile + " was already closed!");
+    }
+
+    private boolean hasLogWriterWork() {
+        return numSealedPages > 0 || requestedLSN > lastSavedLSN;
+    }
+
+    private void runLogWriter() {
+        lock.lock();
+        try {
+            while (true) {
+                while (!isClosed && !hasLogWriterWork())
+                    writerWakeup.awaitUninterruptibly();
+
+                if (!hasLogWriterWork())
+                    return;
+
+                if (requestedLSN > lastSavedLSN)
+                    waitForGroupCommit();
+
+                writeLogTail();
+            }
+        }
+        catch (RuntimeException e) {
+            logWriterFailure = e;
+            logWritten.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Give other committers a moment to join, so one write covers all of them
+    private void waitForGroupCommit() {
+        try {
+            long remainingNanos = groupCommitWindowNanos;
+            while (remainingNanos > 0 && numFlushWaiters < groupCommitMaxBatchSize && !isClosed)
+                remainingNanos = writerWakeup.awaitNanos(remainingNanos);
+        }
+        catch (InterruptedException e) {
+            // Nobody should interrupt the writer, but if they do, just write what we have
+        }
+    }
+
+    /**
+     * Writes the sealed pages out, oldest first. If somebody is waiting in flush(), also writes a copy of the active
+     * page and syncs the file. Called with the lock held, but releases it during the I/O so appends keep going
+     */
+    private void writeLogTail() {
+        int numPagesToWrite = numSealedPages;
+        int oldestPageIndex = Math.floorMod(activePageIndex - numPagesToWrite, logPages.length);
+
+        // Sealed pages don't change until we mark them as written, so those can be written as is
+        LogPage[] pagesToWrite = new LogPage[numPagesToWrite];
+        for (int i = 0; i < numPagesToWrite; i++)
+            pagesToWrite[i] = logPages[(oldestPageIndex + i) % logPages.length];
+
+        // The active page does keep changing though, so write a copy of it as of right now
+        boolean isFlushRequested = requestedLSN > lastSavedLSN;
+        Page activePageCopy = null;
+        BlockId activeBlock = null;
+        if (isFlushRequested) {
+            activePageCopy = new Page(logPages[activePageIndex].bytes.clone());
+            activeBlock = logPages[activePageIndex].block;
+        }
+        long lsnToSave = latestLSN;
+
+        lock.unlock();
+        try {
+            for (LogPage logPage : pagesToWrite) {
+                fileMgr.writePageToDisk(logPage.block, logPage.page);
+                logWriteCounter.incrementAndGet();
+            }
+
+            if (isFlushRequested) {
+                fileMgr.writePageToDisk(activeBlock, activePageCopy);
+                logWriteCounter.incrementAndGet();
+                fileMgr.flushFile(logFile);
+            }
+        }
+        finally {
+            lock.lock();
+        }
+
+        // Appenders may have sealed more pages in the meantime, those stay for the next round
+        numSealedPages -= numPagesToWrite;
+        if (isFlushRequested)
+            lastSavedLSN = Math.max(lastSavedLSN, lsnToSave);
+
+        logWritten.signalAll();
     }
 }
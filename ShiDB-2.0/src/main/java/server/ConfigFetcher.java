@@ -1,5 +1,6 @@
 package server;
 
+import buffer.BufferPoolConfig;
 import lombok.Getter;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.core.JacksonException;
@@ -7,6 +8,8 @@ import tools.jackson.core.JacksonException;
 import java.io.File;
 
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -70,9 +73,170 @@ public class ConfigFetcher {
         return 3; // same default as used in the ShiDB unit tests
     }
 
-    public static long getBufferMgrPollStepTime() {
-        if (getConfigs().configMap.containsKey("buffer_mgr_pin_poll_step_milliseconds"))
-            return Long.parseLong(getConfigs().configMap.get("buffer_mgr_pin_poll_step_milliseconds").toString());
-        return 100L; // return a default wait time of 100 milliseconds
+    public static String getBufferMgrReplacementPolicy() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_replacement_policy"))
+            return getConfigs().configMap.get("buffer_mgr_replacement_policy").toString();
+        return "NAIVE"; // first unpinned buffer, same as the book
+    }
+
+    public static int getBufferMgrLruK() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_lru_k"))
+            return (int) getConfigs().configMap.get("buffer_mgr_lru_k");
+        return 2; // LRU-2 is what the LRU-K paper recommends for most workloads
+    }
+
+    public static int getBufferMgrNumShards() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_num_shards"))
+            return (int) getConfigs().configMap.get("buffer_mgr_num_shards");
+        return 1; // a single lock over the whole pool, same as the book
+    }
+
+    public static String getFileMgrLogDurability() {
+        if (getConfigs().configMap.containsKey("file_mgr_log_durability"))
+            return getConfigs().configMap.get("file_mgr_log_durability").toString();
+        return "SYNC_ON_FLUSH"; // commits depend on the log being on disk once LogMgr.flush() returns
+    }
+
+    public static String getFileMgrDataDurability() {
+        if (getConfigs().configMap.containsKey("file_mgr_data_durability"))
+            return getConfigs().configMap.get("file_mgr_data_durability").toString();
+        return "SYNC_AT_CHECKPOINT"; // the write ahead log covers data pages between checkpoints
+    }
+
+    public static String getFileMgrTempDurability() {
+        if (getConfigs().configMap.containsKey("file_mgr_temp_durability"))
+            return getConfigs().configMap.get("file_mgr_temp_durability").toString();
+        return "NO_SYNC"; // temp files get deleted on startup anyways
+    }
+
+    public static boolean getFileMgrUseMmap() {
+        if (getConfigs().configMap.containsKey("file_mgr_use_mmap"))
+            return Boolean.parseBoolean(getConfigs().configMap.get("file_mgr_use_mmap").toString());
+        return false; // only worth it for read mostly databases
+    }
+
+    public static long getLogMgrGroupCommitWindowMicros() {
+        if (getConfigs().configMap.containsKey("log_mgr_group_commit_window_microseconds"))
+            return Long.parseLong(getConfigs().configMap.get("log_mgr_group_commit_window_microseconds").toString());
+        return 0L; // don't wait, only batch the commits that pile up while a write is already happening
+    }
+
+    public static int getLogMgrGroupCommitMaxBatchSize() {
+        if (getConfigs().configMap.containsKey("log_mgr_group_commit_max_batch_size"))
+            return (int) getConfigs().configMap.get("log_mgr_group_commit_max_batch_size");
+        return 64; // stop waiting for more committers once this many are in the batch
+    }
+
+    public static int getLogMgrNumLogPages() {
+        if (getConfigs().configMap.containsKey("log_mgr_num_log_pages"))
+            return (int) getConfigs().configMap.get("log_mgr_num_log_pages");
+        return 4; // enough for appenders to keep going while the log writer is a few pages behind
+    }
+
+    public static int getLogMgrReadAheadBlocks() {
+        if (getConfigs().configMap.containsKey("log_mgr_read_ahead_blocks"))
+            return (int) getConfigs().configMap.get("log_mgr_read_ahead_blocks");
+        return 16; // number of log blocks the log iterator reads at once
+    }
+
+    public static int getBufferMgrReadAheadBlocks() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_read_ahead_blocks"))
+            return (int) getConfigs().configMap.get("buffer_mgr_read_ahead_blocks");
+        return 8; // blocks to prefetch at once once a scan is detected. 0 turns automatic read ahead off
+    }
+
+    public static int getBufferMgrSequentialPinsBeforeReadAhead() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_sequential_pins_before_read_ahead"))
+            return (int) getConfigs().configMap.get("buffer_mgr_sequential_pins_before_read_ahead");
+        return 3; // pins of consecutive blocks before the BufferMgr decides it's looking at a scan
+    }
+
+    public static int getBufferMgrCleanVictimLookahead() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_clean_victim_lookahead"))
+            return (int) getConfigs().configMap.get("buffer_mgr_clean_victim_lookahead");
+        return 4; // buffers next in line for replacement to check for a clean one before replacing a dirty one
+    }
+
+    public static long getBufferMgrPageWriterIntervalMillis() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_page_writer_interval_milliseconds"))
+            return Long.parseLong(getConfigs().configMap.get("buffer_mgr_page_writer_interval_milliseconds").toString());
+        return 200L; // how often the background page writer runs. 0 turns it off
+    }
+
+    public static int getBufferMgrPageWriterMaxPagesPerRound() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_page_writer_max_pages_per_round"))
+            return (int) getConfigs().configMap.get("buffer_mgr_page_writer_max_pages_per_round");
+        return 32; // caps the background writes at this many pages every interval
+    }
+
+    public static int getBufferMgrPageWriterLowWaterMark() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_page_writer_low_water_mark"))
+            return (int) getConfigs().configMap.get("buffer_mgr_page_writer_low_water_mark");
+        return 8; // clean buffers to keep next in line for replacement, across the whole pool
+    }
+
+    public static int getBufferMgrBulkReadRingSize() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_bulk_read_ring_size"))
+            return (int) getConfigs().configMap.get("buffer_mgr_bulk_read_ring_size");
+        return 8; // buffers a big sequential scan gets to keep reusing
+    }
+
+    public static int getBufferMgrBulkWriteRingSize() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_bulk_write_ring_size"))
+            return (int) getConfigs().configMap.get("buffer_mgr_bulk_write_ring_size");
+        return 32; // bigger than for reads, so the ring isn't waiting on its own dirty buffers to be written
+    }
+
+    public static String getBufferMgrHugePageDirectory() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_huge_page_directory"))
+            return getConfigs().configMap.get("buffer_mgr_huge_page_directory").toString();
+        return ""; // regular pages, huge pages need a hugetlbfs mount set up by hand
+    }
+
+    public static boolean getBufferMgrWarmRestart() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_warm_restart"))
+            return Boolean.parseBoolean(getConfigs().configMap.get("buffer_mgr_warm_restart").toString());
+        return false; // start with an empty pool, same as the book
+    }
+
+    public static int getBufferMgrWarmUpReadBlocks() {
+        if (getConfigs().configMap.containsKey("buffer_mgr_warm_up_read_blocks"))
+            return (int) getConfigs().configMap.get("buffer_mgr_warm_up_read_blocks");
+        return 32; // consecutive blocks read back in with a single read after a restart
+    }
+
+    /**
+     * The buffer pools besides the default one, from the "buffer_mgr_pools" list. Each entry has a "name", a "size", a
+     * "replacement_policy" (the default policy if left out) and "file_patterns"
+     */
+    public static List<BufferPoolConfig> getBufferMgrPools() {
+        if (!getConfigs().configMap.containsKey("buffer_mgr_pools"))
+            return List.of(); // just the default pool, same as the book
+
+        // Jackson hands back plain lists and maps, so check what each entry actually is instead of casting blindly
+        if (!(getConfigs().configMap.get("buffer_mgr_pools") instanceof List<?> pools))
+            throw new RuntimeException("buffer_mgr_pools has to be a list of buffer pools!");
+
+        List<BufferPoolConfig> poolConfigs = new ArrayList<>();
+        for (Object entry : pools) {
+            if (!(entry instanceof Map<?, ?> pool))
+                throw new RuntimeException("Every entry of buffer_mgr_pools has to be an object, got: " + entry);
+
+            String replacementPolicy = pool.containsKey("replacement_policy")
+                    ? pool.get("replacement_policy").toString()
+                    : getBufferMgrReplacementPolicy();
+
+            if (!(pool.get("file_patterns") instanceof List<?> patterns))
+                throw new RuntimeException("Buffer pool " + pool.get("name") + " needs a list of file_patterns!");
+
+            List<String> filePatterns = new ArrayList<>();
+            for (Object pattern : patterns)
+                filePatterns.add(pattern.toString());
+
+            poolConfigs.add(new BufferPoolConfig(pool.get("name").toString(), (int) pool.get("size"),
+                    replacementPolicy, filePatterns));
+        }
+
+        return poolConfigs;
     }
 }
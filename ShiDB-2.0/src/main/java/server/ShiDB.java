@@ -1,7 +1,9 @@
 package server;
 
 import buffer.BufferMgr;
+import buffer.BufferPools;
 import file.FileMgr;
+import file.MmapFileMgr;
 import log.LogMgr;
 import lombok.Getter;
 import lombok.Setter;
@@ -21,9 +23,14 @@ public class ShiDB {
     @Getter
     private LogMgr logMgr;
 
+    // The default pool, for every file the config doesn't put in some other pool
     @Getter @Setter
     private BufferMgr bufferMgr;
 
+    // Every buffer pool, including the default one. Pin through here to get the block's own pool
+    @Getter
+    private BufferPools bufferPools;
+
 
     /**
      * A constructor useful for debugging.
@@ -33,7 +40,7 @@ public class ShiDB {
      */
     public ShiDB(String dirName, int blockSize) throws IOException {
         File dbDirectory = new File(dirName);
-        this.fileMgr = new FileMgr(dbDirectory, blockSize);
+        this.fileMgr = createFileMgr(dbDirectory, blockSize);
         this.logMgr = new LogMgr(fileMgr, LOG_FILE);
     }
 
@@ -41,12 +48,22 @@ public class ShiDB {
      *
      * @param dirName Where all the database files should live
      * @param blockSize Number of bytes each block in the database file should hold
-     * @param bufferSize Number of buffers/pages for the buffer manager to create, own, and manage
+     * @param bufferSize Number of buffers/pages for the buffer manager to create, own, and manage. Any other buffer
+     *                   pools get their sizes from the config
      */
     public ShiDB(String dirName, int blockSize, int bufferSize) throws IOException{
         File dbDirectory = new File(dirName);
-        this.fileMgr = new FileMgr(dbDirectory, blockSize);
+        this.fileMgr = createFileMgr(dbDirectory, blockSize);
         this.logMgr = new LogMgr(fileMgr, LOG_FILE);
-        this.bufferMgr = new BufferMgr(fileMgr, logMgr, bufferSize);
+        this.bufferPools = new BufferPools(fileMgr, logMgr, bufferSize);
+        this.bufferMgr = bufferPools.getDefaultPool();
+    }
+
+    // Read mostly databases can memory map their data files instead. See the MmapFileMgr
+    private static FileMgr createFileMgr(File dbDirectory, int blockSize) throws IOException {
+        if (ConfigFetcher.getFileMgrUseMmap())
+            return new MmapFileMgr(dbDirectory, blockSize);
+
+        return new FileMgr(dbDirectory, blockSize);
     }
-}
\ No newline at end of file
+}
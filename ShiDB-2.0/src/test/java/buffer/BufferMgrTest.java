@@ -2,6 +2,7 @@ package buffer;
 
 import error.BufferAbortException;
 import file.BlockId;
+import file.FileDurability;
 import file.FileMgr;
 import file.Page;
 import org.junit.jupiter.api.*;
@@ -9,9 +10,25 @@ import server.ConfigFetcher;
 import server.ShiDB;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static server.ConfigFetcher.getConfigs;
 
 public class BufferMgrTest {
@@ -169,4 +186,614 @@ public class BufferMgrTest {
         buffer2.setModified(1, 0);
         bufferMgr.unpinBuffer(buffer2);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test that pinning an equal, but different, BlockId instance finds the cached buffer")
+    public void testPinFindsExistingBufferByValue() {
+        bufferMgr.resetBufferMgrStatistics();
+
+        Buffer buffer1 = bufferMgr.pinBuffer(new BlockId(testFileName, 0));
+        Buffer buffer2 = bufferMgr.pinBuffer(new BlockId(testFileName, 0));
+
+        assertSame(buffer1, buffer2);
+        assertEquals(2, buffer1.getPins());
+        assertEquals(numInitialBuffers - 1, bufferMgr.getNumAvailableBuffers());
+        assertEquals(1, bufferMgr.getCacheMissCounter());
+        assertEquals(1, bufferMgr.getCacheHitCounter());
+    }
+
+    @Test
+    @DisplayName("Test that an unpinned block stays cached until its buffer is chosen for replacement")
+    public void testUnpinnedBlockStaysCached() {
+        String testFile = "unit_test_file";
+        bufferMgr.resetBufferMgrStatistics();
+
+        Buffer buffer1 = bufferMgr.pinBuffer(new BlockId(testFile, 1));
+        bufferMgr.unpinBuffer(buffer1);
+
+        // Free buffers are used before evicting block 1, so block 1 is still resident after these pins
+        bufferMgr.pinBuffer(new BlockId(testFile, 2));
+        bufferMgr.pinBuffer(new BlockId(testFile, 3));
+        assertSame(buffer1, bufferMgr.pinBuffer(new BlockId(testFile, 1)));
+        assertEquals(1, bufferMgr.getCacheHitCounter());
+        assertEquals(3, bufferMgr.getCacheMissCounter());
+
+        // Now block 1 gets evicted for block 4, so pinning block 1 again is a miss
+        bufferMgr.unpinBuffer(buffer1);
+        Buffer buffer4 = bufferMgr.pinBuffer(new BlockId(testFile, 4));
+        assertSame(buffer1, buffer4);
+        assertEquals(new BlockId(testFile, 4), buffer4.getBlock());
+        assertEquals(4, bufferMgr.getCacheMissCounter());
+    }
+
+    @Test
+    @DisplayName("Test many threads pinning and unpinning blocks across a sharded buffer pool")
+    public void testConcurrentPinsAcrossShards() throws Exception {
+        String testFile = "unit_test_file";
+        int numBuffers = 16;
+        int numThreads = 8;
+        int pinsPerThread = 500;
+
+        BufferMgr shardedBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), numBuffers,
+                BufferMgr.bufferSelectionStrategy.CLOCK, 4);
+        assertEquals(4, shardedBufferMgr.getNumShards());
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int threadNum = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < pinsPerThread; i++) {
+                    BlockId block = new BlockId(testFile, (threadNum + i) % 32);
+                    Buffer buffer = shardedBufferMgr.pinBuffer(block);
+                    assertEquals(block, buffer.getBlock());
+                    shardedBufferMgr.unpinBuffer(buffer);
+                }
+            }));
+        }
+
+        for (Future<?> result : results)
+            result.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(numBuffers, shardedBufferMgr.getNumAvailableBuffers());
+        assertEquals((long) numThreads * pinsPerThread,
+                shardedBufferMgr.getCacheHitCounter() + shardedBufferMgr.getCacheMissCounter());
+    }
+
+    @Test
+    @DisplayName("Test that waiting pins are handed buffers in the order they started waiting, without polling")
+    public void testWaitingPinsAreServedInOrder() throws Exception {
+        String testFile = "unit_test_file";
+        bufferMgr.resetBufferMgrStatistics();
+
+        Buffer buffer1 = bufferMgr.pinBuffer(new BlockId(testFile, 1));
+        Buffer buffer2 = bufferMgr.pinBuffer(new BlockId(testFile, 2));
+        bufferMgr.pinBuffer(new BlockId(testFile, 3));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Buffer> firstWaiter = executor.submit(() -> bufferMgr.pinBuffer(new BlockId(testFile, 4)));
+        Thread.sleep(50);
+        Future<Buffer> secondWaiter = executor.submit(() -> bufferMgr.pinBuffer(new BlockId(testFile, 5)));
+        Thread.sleep(50);
+
+        // The first buffer freed goes to the first waiter, even though both are waiting on it
+        long unpinTime = System.nanoTime();
+        bufferMgr.unpinBuffer(buffer1);
+        assertEquals(new BlockId(testFile, 4), firstWaiter.get(1, TimeUnit.SECONDS).getBlock());
+        long handOffMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - unpinTime);
+        assertFalse(secondWaiter.isDone());
+
+        bufferMgr.unpinBuffer(buffer2);
+        assertEquals(new BlockId(testFile, 5), secondWaiter.get(1, TimeUnit.SECONDS).getBlock());
+        executor.shutdown();
+
+        // Nobody polls anymore, so the hand off shouldn't take anywhere near the old 100ms poll step
+        assertTrue(handOffMillis < 50, "Hand off took " + handOffMillis + "ms");
+        assertEquals(2, bufferMgr.getPinWaitTimeHistogram().getNumWaits());
+        assertEquals(0, bufferMgr.getPinWaitTimeHistogram().getNumTimeouts());
+        assertEquals(0, bufferMgr.getNumAvailableBuffers());
+    }
+
+    private String createScanFile(int numBlocks) {
+        String scanFile = "prefetch_test_file";
+        FileMgr fileMgr = shiDB.getFileMgr();
+        fileMgr.deleteFile(scanFile);
+        for (int i = 0; i < numBlocks; i++)
+            fileMgr.append(scanFile);
+
+        return scanFile;
+    }
+
+    @Test
+    @DisplayName("Test that a buffer whose block can't be read goes back in the pool instead of being lost")
+    public void testFailedReadDoesNotLeakBuffer() {
+        FileMgr fileMgr = spy(shiDB.getFileMgr());
+        BlockId unreadableBlock = new BlockId(testFileName, 7);
+        doThrow(new RuntimeException("Cannot read block: " + unreadableBlock))
+                .when(fileMgr).readFromDiskToPage(eq(unreadableBlock), any());
+        BufferMgr smallBufferMgr = new BufferMgr(fileMgr, shiDB.getLogMgr(), 2,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+
+        // The first failure takes a free buffer, the next ones replace the blocks that got cached in between
+        assertThrows(RuntimeException.class, () -> smallBufferMgr.pinBuffer(unreadableBlock));
+        smallBufferMgr.unpinBuffer(smallBufferMgr.pinBuffer(new BlockId(testFileName, 0)));
+        smallBufferMgr.unpinBuffer(smallBufferMgr.pinBuffer(new BlockId(testFileName, 1)));
+        assertThrows(RuntimeException.class, () -> smallBufferMgr.pinBuffer(unreadableBlock));
+        assertThrows(RuntimeException.class, () -> smallBufferMgr.pinBuffer(unreadableBlock));
+
+        // Both buffers are still there to be pinned at the same time
+        Buffer buffer1 = smallBufferMgr.pinBuffer(new BlockId(testFileName, 2));
+        Buffer buffer2 = smallBufferMgr.pinBuffer(new BlockId(testFileName, 3));
+        assertNotSame(buffer1, buffer2);
+        assertEquals(0, smallBufferMgr.getNumAvailableBuffers());
+
+        smallBufferMgr.unpinBuffer(buffer1);
+        smallBufferMgr.unpinBuffer(buffer2);
+        smallBufferMgr.close();
+    }
+
+    @Test
+    @DisplayName("Test that a dirty victim that can't be written out stays cached, under 2Q and FIFO")
+    public void testFailedWriteDoesNotLeakBuffer() {
+        FileMgr fileMgr = spy(shiDB.getFileMgr());
+        AtomicBoolean failWrites = new AtomicBoolean(false);
+        doAnswer(invocation -> {
+            if (failWrites.get())
+                throw new RuntimeException("Cannot write block: " + invocation.getArgument(0));
+            return invocation.callRealMethod();
+        }).when(fileMgr).writePageToDisk(any(), any());
+
+        for (BufferMgr.bufferSelectionStrategy strategy : List.of(BufferMgr.bufferSelectionStrategy.TWO_QUEUE,
+                BufferMgr.bufferSelectionStrategy.FIFO)) {
+            failWrites.set(false);
+            BufferMgr smallBufferMgr = new BufferMgr(fileMgr, shiDB.getLogMgr(), 4, strategy, 1);
+            BufferAccessStrategy bulkWrite = smallBufferMgr.createAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE);
+
+            // Three dirty blocks for the policy to pick from, and a dirty one in the ring
+            List<BlockId> cachedBlocks = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                BlockId block = new BlockId(testFileName, 300 + 2 * i);
+                Buffer buffer = i < 3 ? smallBufferMgr.pinBuffer(block) : smallBufferMgr.pinBuffer(block, bulkWrite);
+                buffer.setModified(1, -1);
+                smallBufferMgr.unpinBuffer(buffer);
+                cachedBlocks.add(block);
+            }
+
+            // The ring reusing its buffer and the policy picking a victim both have to write a dirty page first
+            failWrites.set(true);
+            RuntimeException ringFailure = assertThrows(RuntimeException.class,
+                    () -> smallBufferMgr.pinBuffer(new BlockId(testFileName, 400), bulkWrite));
+            assertTrue(ringFailure.getMessage().startsWith("Cannot write block"), strategy.name());
+            RuntimeException victimFailure = assertThrows(RuntimeException.class,
+                    () -> smallBufferMgr.pinBuffer(new BlockId(testFileName, 402)));
+            assertTrue(victimFailure.getMessage().startsWith("Cannot write block"), strategy.name());
+            failWrites.set(false);
+
+            // The old blocks are all still cached, and every buffer can still be replaced and pinned at once
+            smallBufferMgr.resetBufferMgrStatistics();
+            for (BlockId block : cachedBlocks)
+                smallBufferMgr.unpinBuffer(smallBufferMgr.pinBuffer(block));
+            assertEquals(4, smallBufferMgr.getCacheHitCounter(), strategy.name());
+            assertEquals(4, smallBufferMgr.getNumAvailableBuffers(), strategy.name());
+
+            List<Buffer> pinned = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                pinned.add(smallBufferMgr.pinBuffer(new BlockId(testFileName, 500 + 2 * i)));
+            assertEquals(0, smallBufferMgr.getNumAvailableBuffers(), strategy.name());
+            pinned.forEach(smallBufferMgr::unpinBuffer);
+            smallBufferMgr.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test that a pin reading its block in doesn't hold up the other pins of its shard")
+    public void testReadDoesNotHoldUpShard() throws Exception {
+        FileMgr fileMgr = spy(shiDB.getFileMgr());
+        BlockId slowBlock = new BlockId(testFileName, 9);
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch finishRead = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            readStarted.countDown();
+            finishRead.await();
+            return invocation.callRealMethod();
+        }).when(fileMgr).readFromDiskToPage(eq(slowBlock), any());
+        BufferMgr smallBufferMgr = new BufferMgr(fileMgr, shiDB.getLogMgr(), 4,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Future<Buffer> slowPin = executor.submit(() -> smallBufferMgr.pinBuffer(slowBlock));
+        assertTrue(readStarted.await(1, TimeUnit.SECONDS));
+
+        // Another block of the same shard gets read in while the slow read is still going, but a second pin of the
+        // slow block waits for the first one's read instead of reading it again
+        Future<Buffer> samePin = executor.submit(() -> smallBufferMgr.pinBuffer(slowBlock));
+        Future<Buffer> otherPin = executor.submit(() -> smallBufferMgr.pinBuffer(new BlockId(testFileName, 0)));
+        Buffer otherBuffer = otherPin.get(1, TimeUnit.SECONDS);
+        assertEquals(new BlockId(testFileName, 0), otherBuffer.getBlock());
+        assertFalse(samePin.isDone());
+
+        finishRead.countDown();
+        Buffer slowBuffer = slowPin.get(1, TimeUnit.SECONDS);
+        assertSame(slowBuffer, samePin.get(1, TimeUnit.SECONDS));
+        assertEquals(2, slowBuffer.getPins());
+        verify(fileMgr, times(1)).readFromDiskToPage(eq(slowBlock), any());
+        assertEquals(2, smallBufferMgr.getNumAvailableBuffers());
+
+        smallBufferMgr.unpinBuffer(slowBuffer);
+        smallBufferMgr.unpinBuffer(slowBuffer);
+        smallBufferMgr.unpinBuffer(otherBuffer);
+        assertEquals(4, smallBufferMgr.getNumAvailableBuffers());
+        executor.shutdown();
+        smallBufferMgr.close();
+    }
+
+    @Test
+    @DisplayName("Test that a waiting pin reads its own block in, and gets the error itself if that fails")
+    public void testWaiterReadsItsOwnBlock() throws Exception {
+        FileMgr fileMgr = spy(shiDB.getFileMgr());
+        BlockId unreadableBlock = new BlockId(testFileName, 7);
+        BlockId readableBlock = new BlockId(testFileName, 8);
+        doThrow(new RuntimeException("Cannot read block: " + unreadableBlock))
+                .when(fileMgr).readFromDiskToPage(eq(unreadableBlock), any());
+        AtomicReference<Thread> readingThread = new AtomicReference<>();
+        doAnswer(invocation -> {
+            readingThread.set(Thread.currentThread());
+            return invocation.callRealMethod();
+        }).when(fileMgr).readFromDiskToPage(eq(readableBlock), any());
+        BufferMgr smallBufferMgr = new BufferMgr(fileMgr, shiDB.getLogMgr(), 1,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // The unpin only hands the buffer over, so the failed read is the waiter's problem and not the unpinner's
+        Buffer buffer = smallBufferMgr.pinBuffer(new BlockId(testFileName, 0));
+        Future<Buffer> failingWaiter = executor.submit(() -> smallBufferMgr.pinBuffer(unreadableBlock));
+        Thread.sleep(50);
+        assertDoesNotThrow(() -> smallBufferMgr.unpinBuffer(buffer));
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> failingWaiter.get(1, TimeUnit.SECONDS));
+        assertTrue(failure.getCause().getMessage().startsWith("Cannot read block"));
+        assertEquals(1, smallBufferMgr.getNumAvailableBuffers());
+
+        // And a read that works happens on the waiter's thread too
+        Buffer otherBuffer = smallBufferMgr.pinBuffer(new BlockId(testFileName, 0));
+        Future<Buffer> waiter = executor.submit(() -> smallBufferMgr.pinBuffer(readableBlock));
+        Thread.sleep(50);
+        smallBufferMgr.unpinBuffer(otherBuffer);
+
+        Buffer readBuffer = waiter.get(1, TimeUnit.SECONDS);
+        assertEquals(readableBlock, readBuffer.getBlock());
+        assertNotSame(Thread.currentThread(), readingThread.get());
+
+        smallBufferMgr.unpinBuffer(readBuffer);
+        executor.shutdown();
+        smallBufferMgr.close();
+    }
+
+    @Test
+    @DisplayName("Test that prefetched blocks are cached and unpinned, and pinning them later is a cache hit")
+    public void testPrefetch() throws Exception {
+        String scanFile = createScanFile(20);
+        BufferMgr prefetchBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), 16);
+
+        assertEquals(5, prefetchBufferMgr.prefetch(scanFile, 0, 5).get(1, TimeUnit.SECONDS));
+        assertEquals(5, prefetchBufferMgr.getPrefetchCounter());
+        assertEquals(16, prefetchBufferMgr.getNumAvailableBuffers());
+
+        // Already cached, and past the end of the file, respectively
+        assertEquals(0, prefetchBufferMgr.prefetch(scanFile, 0, 5).get(1, TimeUnit.SECONDS));
+        assertEquals(2, prefetchBufferMgr.prefetch(scanFile, 18, 10).get(1, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 5; i++)
+            prefetchBufferMgr.unpinBuffer(prefetchBufferMgr.pinBuffer(new BlockId(scanFile, i)));
+
+        assertEquals(5, prefetchBufferMgr.getCacheHitCounter());
+        assertEquals(0, prefetchBufferMgr.getCacheMissCounter());
+
+        shiDB.getFileMgr().deleteFile(scanFile);
+    }
+
+    @Test
+    @DisplayName("Test that pinning blocks one after another kicks off read ahead on its own")
+    public void testSequentialReadAhead() throws Exception {
+        String scanFile = createScanFile(20);
+        int numBlocksToScan = 12;
+
+        // Read ahead is capped at a quarter of the pool, so this reads ahead 4 blocks at a time
+        BufferMgr prefetchBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), 16);
+
+        // Pins of blocks that haven't been read in yet are cache misses, the rest should have been read ahead
+        for (int i = 0; i < numBlocksToScan; i++) {
+            if (i >= 3)
+                waitForPrefetch(prefetchBufferMgr, i - 2);
+
+            prefetchBufferMgr.unpinBuffer(prefetchBufferMgr.pinBuffer(new BlockId(scanFile, i)));
+        }
+
+        // Only the pins before the scan was detected had to go to the disk
+        assertEquals(3, prefetchBufferMgr.getCacheMissCounter());
+        assertEquals(numBlocksToScan - 3, prefetchBufferMgr.getCacheHitCounter());
+        assertTrue(prefetchBufferMgr.getPrefetchCounter() >= numBlocksToScan - 3);
+
+        shiDB.getFileMgr().deleteFile(scanFile);
+    }
+
+    // Prefetching is asynchronous, so give it a moment to get the blocks in
+    private void waitForPrefetch(BufferMgr bufferMgr, long numBlocks) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (bufferMgr.getPrefetchCounter() < numBlocks && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+    }
+
+    @Test
+    @DisplayName("Test that the background page writer cleans dirty buffers that aren't pinned")
+    public void testBackgroundPageWriter() throws InterruptedException {
+        Buffer buffer1 = bufferMgr.pinBuffer(new BlockId(testFileName, 1));
+        Buffer buffer2 = bufferMgr.pinBuffer(new BlockId(testFileName, 2));
+        Buffer buffer3 = bufferMgr.pinBuffer(new BlockId(testFileName, 3));
+
+        buffer1.setModified(1, -1);
+        buffer2.setModified(1, -1);
+        buffer3.setModified(1, -1);
+        bufferMgr.unpinBuffer(buffer1);
+        bufferMgr.unpinBuffer(buffer2);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((buffer1.isModified() || buffer2.isModified()) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertFalse(buffer1.isModified());
+        assertFalse(buffer2.isModified());
+        assertTrue(bufferMgr.getBackgroundWriteCounter() >= 2);
+
+        // Pinned buffers are left alone
+        assertTrue(buffer3.isModified());
+        assertEquals(0, bufferMgr.cleanBuffers());
+
+        // Nothing had to be written to replace the cleaned buffers
+        bufferMgr.pinBuffer(new BlockId(testFileName, 4));
+        assertEquals(0, bufferMgr.getDirtyReplacementCounter());
+    }
+
+    @Test
+    @DisplayName("Test that a BufferMgr built on its own doesn't write anything in the background until it's started")
+    public void testPageWriterWaitsForStart() throws InterruptedException {
+        BufferMgr unstartedBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), 4);
+
+        Buffer buffer = unstartedBufferMgr.pinBuffer(new BlockId(testFileName, 1));
+        buffer.setModified(1, -1);
+        unstartedBufferMgr.unpinBuffer(buffer);
+
+        Thread.sleep(3 * ConfigFetcher.getBufferMgrPageWriterIntervalMillis());
+        assertTrue(buffer.isModified());
+
+        unstartedBufferMgr.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (buffer.isModified() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertFalse(buffer.isModified());
+        unstartedBufferMgr.close();
+    }
+
+    @Test
+    @DisplayName("Test that flushing a transaction's buffers only writes the buffers that transaction modified")
+    public void testFlushAllBuffersOfTransaction() {
+        BufferMgr flushBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), 8,
+                BufferMgr.bufferSelectionStrategy.LRU, 2);
+        FileMgr fileMgr = shiDB.getFileMgr();
+
+        List<Buffer> tx1Buffers = new ArrayList<>();
+        List<Buffer> tx2Buffers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Buffer buffer = flushBufferMgr.pinBuffer(new BlockId(testFileName, i));
+            buffer.setModified(1, -1);
+            tx1Buffers.add(buffer);
+        }
+        for (int i = 3; i < 5; i++) {
+            Buffer buffer = flushBufferMgr.pinBuffer(new BlockId(testFileName, i));
+            buffer.setModified(2, -1);
+            tx2Buffers.add(buffer);
+        }
+        assertEquals(5, flushBufferMgr.getNumModifiedBuffers());
+
+        // Transaction 2 takes over one of transaction 1's buffers, so that one is no longer transaction 1's to flush
+        tx1Buffers.get(0).setModified(2, -1);
+
+        long numWritesBefore = fileMgr.getBlocksWriteCounter();
+        assertEquals(2, flushBufferMgr.flushAllBuffers(1));
+        assertEquals(2, fileMgr.getBlocksWriteCounter() - numWritesBefore);
+        assertFalse(tx1Buffers.get(1).isModified());
+        assertFalse(tx1Buffers.get(2).isModified());
+        tx2Buffers.forEach(buffer -> assertTrue(buffer.isModified()));
+
+        // Nothing left for transaction 1, and a checkpoint writes out everything else
+        assertEquals(0, flushBufferMgr.flushAllBuffers(1));
+        assertEquals(3, flushBufferMgr.flushAllModifiedBuffers());
+        assertEquals(0, flushBufferMgr.getNumModifiedBuffers());
+
+        flushBufferMgr.close();
+    }
+
+    @Test
+    @DisplayName("Test that a checkpoint syncs the data files, while a commit's flush leaves that to the next checkpoint")
+    public void testCheckpointSyncsDataFiles() {
+        FileMgr fileMgr = shiDB.getFileMgr();
+        assertEquals(FileDurability.SYNC_AT_CHECKPOINT, fileMgr.getDurability(testFileName));
+
+        // Get whatever setup wrote out of the way first
+        fileMgr.checkpoint();
+        long numForcesBefore = fileMgr.getForceCounter();
+
+        Buffer buffer = bufferMgr.pinBuffer(new BlockId(testFileName, 1));
+        buffer.setModified(1, -1);
+        assertEquals(1, bufferMgr.flushAllBuffers(1));
+        assertEquals(numForcesBefore, fileMgr.getForceCounter());
+
+        // Nothing is dirty anymore, but the write of the commit still has to be synced
+        buffer.setModified(2, -1);
+        assertEquals(1, bufferMgr.flushAllModifiedBuffers());
+        assertEquals(numForcesBefore + 1, fileMgr.getForceCounter());
+
+        // Already synced, so the next checkpoint has nothing to do
+        bufferMgr.flushAllModifiedBuffers();
+        assertEquals(numForcesBefore + 1, fileMgr.getForceCounter());
+
+        bufferMgr.unpinBuffer(buffer);
+    }
+
+    @Test
+    @DisplayName("Test that a scan pinning through a ring doesn't push the rest of the pool out")
+    public void testBulkReadRing() {
+        String scanFile = createScanFile(50);
+        BufferMgr ringBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), 16,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+
+        // Hot blocks that point lookups keep going back to
+        for (int i = 100; i < 108; i++)
+            ringBufferMgr.unpinBuffer(ringBufferMgr.pinBuffer(new BlockId(testFileName, i)));
+
+        // The ring only gets a quarter of the pool, so the scan keeps reusing the same 4 buffers
+        BufferAccessStrategy strategy = ringBufferMgr.createAccessStrategy(BufferAccessStrategy.Type.BULK_READ);
+        for (int i = 0; i < 50; i++)
+            ringBufferMgr.unpinBuffer(ringBufferMgr.pinBuffer(new BlockId(scanFile, i), strategy));
+        assertEquals(4, strategy.getNumRingBuffers());
+
+        ringBufferMgr.resetBufferMgrStatistics();
+        for (int i = 100; i < 108; i++)
+            ringBufferMgr.unpinBuffer(ringBufferMgr.pinBuffer(new BlockId(testFileName, i)));
+        assertEquals(8, ringBufferMgr.getCacheHitCounter());
+        assertEquals(0, ringBufferMgr.getCacheMissCounter());
+
+        // The same scan without the ring replaces the hot blocks
+        for (int i = 0; i < 50; i++)
+            ringBufferMgr.unpinBuffer(ringBufferMgr.pinBuffer(new BlockId(scanFile, i)));
+
+        ringBufferMgr.resetBufferMgrStatistics();
+        for (int i = 100; i < 108; i++)
+            ringBufferMgr.unpinBuffer(ringBufferMgr.pinBuffer(new BlockId(testFileName, i)));
+        assertTrue(ringBufferMgr.getCacheMissCounter() > 0);
+
+        ringBufferMgr.close();
+        shiDB.getFileMgr().deleteFile(scanFile);
+    }
+
+    @Test
+    @DisplayName("Test that the blocks saved from one pool get read back into a new pool, hottest first")
+    public void testWarmRestart() throws Exception {
+        String scanFile = createScanFile(30);
+        FileMgr fileMgr = shiDB.getFileMgr();
+
+        Page page = new Page(fileMgr.getBlocksize());
+        page.setInt(80, 1234);
+        fileMgr.writePageToDisk(new BlockId(scanFile, 4), page);
+
+        BufferMgr oldBufferMgr = new BufferMgr(fileMgr, shiDB.getLogMgr(), 16,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+        // Every other block, so none of this looks like a scan and nothing gets read ahead
+        for (int i = 0; i < 12; i += 2)
+            oldBufferMgr.unpinBuffer(oldBufferMgr.pinBuffer(new BlockId(scanFile, i)));
+
+        // Blocks still pinned are in use right now, so they're the hottest
+        List<Buffer> pinnedBuffers = new ArrayList<>();
+        for (int i = 20; i < 28; i += 2)
+            pinnedBuffers.add(oldBufferMgr.pinBuffer(new BlockId(scanFile, i)));
+
+        assertEquals(10, oldBufferMgr.saveResidentBlocks());
+        pinnedBuffers.forEach(oldBufferMgr::unpinBuffer);
+        oldBufferMgr.close();
+
+        // A smaller pool only gets the hottest blocks
+        BufferMgr smallBufferMgr = new BufferMgr(fileMgr, shiDB.getLogMgr(), 4,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+        assertEquals(4, smallBufferMgr.warmUp().get(1, TimeUnit.SECONDS));
+        for (int i = 20; i < 28; i += 2)
+            smallBufferMgr.unpinBuffer(smallBufferMgr.pinBuffer(new BlockId(scanFile, i)));
+        assertEquals(4, smallBufferMgr.getCacheHitCounter());
+        assertEquals(0, smallBufferMgr.getCacheMissCounter());
+        smallBufferMgr.close();
+
+        // Blocks that were read back in hold what's on the disk, and pins of them are cache hits
+        BufferMgr newBufferMgr = new BufferMgr(fileMgr, shiDB.getLogMgr(), 16,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+        assertEquals(10, newBufferMgr.warmUp().get(1, TimeUnit.SECONDS));
+        assertEquals(10, newBufferMgr.getPrefetchCounter());
+
+        Buffer buffer = newBufferMgr.pinBuffer(new BlockId(scanFile, 4));
+        assertEquals(1234, buffer.getContents().getInt(80));
+        assertEquals(1, newBufferMgr.getCacheHitCounter());
+        newBufferMgr.unpinBuffer(buffer);
+
+        // Warming up again doesn't read anything, everything saved is already cached
+        assertEquals(0, newBufferMgr.warmUp().get(1, TimeUnit.SECONDS));
+        newBufferMgr.close();
+
+        fileMgr.deleteFile(scanFile);
+    }
+
+    @Test
+    @DisplayName("Test growing and shrinking the pool while buffers are pinned")
+    public void testResizePool() {
+        BufferMgr resizeBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), 8,
+                BufferMgr.bufferSelectionStrategy.LRU, 1);
+
+        // Every other block, so nothing gets read ahead
+        List<Buffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 8; i += 2)
+            buffers.add(resizeBufferMgr.pinBuffer(new BlockId(testFileName, i)));
+        buffers.get(1).setModified(1, -1);
+        buffers.get(3).setModified(1, -1);
+        resizeBufferMgr.unpinBuffer(buffers.get(1));
+        resizeBufferMgr.unpinBuffer(buffers.get(2));
+
+        resizeBufferMgr.resize(16);
+        assertEquals(16, resizeBufferMgr.getNumBuffers());
+        assertEquals(14, resizeBufferMgr.getNumAvailableBuffers());
+
+        // Everything but the first frame goes. The unpinned dirty buffer gets written out right away
+        resizeBufferMgr.resize(1);
+        assertEquals(1, resizeBufferMgr.getNumBuffers());
+        assertEquals(0, resizeBufferMgr.getNumAvailableBuffers());
+        assertEquals(1, resizeBufferMgr.getNumModifiedBuffers());
+
+        // A pinned buffer that's on its way out still works like normal until its last unpin
+        assertSame(buffers.get(3), resizeBufferMgr.pinBuffer(new BlockId(testFileName, 6)));
+        resizeBufferMgr.unpinBuffer(buffers.get(3));
+        resizeBufferMgr.unpinBuffer(buffers.get(3));
+        assertEquals(0, resizeBufferMgr.getNumModifiedBuffers());
+        assertEquals(0, resizeBufferMgr.getNumAvailableBuffers());
+
+        resizeBufferMgr.unpinBuffer(buffers.get(0));
+        assertEquals(1, resizeBufferMgr.getNumAvailableBuffers());
+
+        resizeBufferMgr.resize(4);
+        assertEquals(4, resizeBufferMgr.getNumAvailableBuffers());
+        for (int i = 20; i < 28; i += 2)
+            resizeBufferMgr.pinBuffer(new BlockId(testFileName, i));
+        assertEquals(0, resizeBufferMgr.getNumAvailableBuffers());
+
+        resizeBufferMgr.close();
+    }
+
+    @Test
+    @DisplayName("Test that every replacement policy keeps working after the pool grows and shrinks")
+    public void testResizeWithEveryPolicy() {
+        for (BufferMgr.bufferSelectionStrategy strategy : BufferMgr.bufferSelectionStrategy.values()) {
+            BufferMgr resizeBufferMgr = new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), 4, strategy, 2);
+
+            int[] poolSizes = {4, 12, 2, 6};
+            for (int poolSize : poolSizes) {
+                resizeBufferMgr.resize(poolSize);
+
+                // More blocks than fit, so the policy has to pick victims
+                for (int i = 0; i < 4 * poolSize; i += 2)
+                    resizeBufferMgr.unpinBuffer(resizeBufferMgr.pinBuffer(new BlockId(testFileName, 200 + i)));
+
+                assertEquals(poolSize, resizeBufferMgr.getNumAvailableBuffers(), strategy.name());
+            }
+
+            resizeBufferMgr.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package buffer;
+
+import file.BlockId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import server.ConfigFetcher;
+import server.ShiDB;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolsTest {
+    private ShiDB shiDB;
+    private BufferPools bufferPools;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        shiDB = new ShiDB("BufferMgr-unit-test", ConfigFetcher.getDBFileBlockSize());
+
+        List<BufferPoolConfig> poolConfigs = List.of(
+                new BufferPoolConfig("keep", 4, "LRU", List.of("tblcat\\.tbl", ".*dir")),
+                new BufferPoolConfig("recycle", 2, "FIFO", List.of("fact_.*")));
+        bufferPools = new BufferPools(shiDB.getFileMgr(), shiDB.getLogMgr(), 8, poolConfigs);
+    }
+
+    @AfterEach
+    void tearDown() {
+        bufferPools.close();
+    }
+
+    @Test
+    @DisplayName("Files go in the first pool whose patterns match, and everything else goes in the default pool")
+    public void testRouting() {
+        assertSame(bufferPools.getPool("keep"), bufferPools.poolFor("tblcat.tbl"));
+        assertSame(bufferPools.getPool("keep"), bufferPools.poolFor("studentidxdir"));
+        assertSame(bufferPools.getPool("recycle"), bufferPools.poolFor(new BlockId("fact_sales", 3)));
+        assertSame(bufferPools.getDefaultPool(), bufferPools.poolFor("students"));
+
+        // The pattern has to match the whole name
+        assertSame(bufferPools.getDefaultPool(), bufferPools.poolFor("tblcat.tbl.bak"));
+
+        assertEquals(3, bufferPools.getPools().size());
+        assertEquals(2, bufferPools.getPool("recycle").getNumBuffers());
+        assertThrows(IllegalArgumentException.class, () -> bufferPools.getPool("nope"));
+    }
+
+    @Test
+    @DisplayName("A scan of a big table only churns through its own pool, and each pool keeps its own statistics")
+    public void testPoolsAreSeparate() {
+        BlockId catalogBlock = new BlockId("tblcat.tbl", 0);
+        bufferPools.unpinBuffer(bufferPools.pinBuffer(catalogBlock));
+
+        for (int i = 0; i < 20; i += 2)
+            bufferPools.unpinBuffer(bufferPools.pinBuffer(new BlockId("fact_sales", i)));
+
+        BufferMgr keepPool = bufferPools.getPool("keep");
+        BufferMgr recyclePool = bufferPools.getPool("recycle");
+        assertEquals(10, recyclePool.getCacheMissCounter());
+        assertEquals(1, keepPool.getCacheMissCounter());
+        assertEquals(0, bufferPools.getDefaultPool().getCacheMissCounter());
+
+        bufferPools.unpinBuffer(bufferPools.pinBuffer(catalogBlock));
+        assertEquals(1, keepPool.getCacheHitCounter());
+    }
+
+    @Test
+    @DisplayName("A file assigned to a pool goes there no matter what the patterns say, but only before it's used")
+    public void testAssignFile() {
+        bufferPools.assignFile("fact_dates", "keep");
+        assertSame(bufferPools.getPool("keep"), bufferPools.poolFor("fact_dates"));
+
+        // Already routed to the recycle pool by its pattern
+        bufferPools.poolFor("fact_sales");
+        assertThrows(IllegalStateException.class, () -> bufferPools.assignFile("fact_sales", "keep"));
+
+        // Assigning a file to the pool it's already in is fine
+        bufferPools.assignFile("fact_sales", "recycle");
+    }
+
+    @Test
+    @DisplayName("Two pools can't have the same name")
+    public void testDuplicatePoolNames() {
+        List<BufferPoolConfig> poolConfigs = List.of(
+                new BufferPoolConfig("keep", 2, "LRU", List.of("a")),
+                new BufferPoolConfig("keep", 2, "LRU", List.of("b")));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new BufferPools(shiDB.getFileMgr(), shiDB.getLogMgr(), 2, poolConfigs));
+    }
+}
@@ -11,6 +11,14 @@ import server.ConfigFetcher;
 import server.ShiDB;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -70,4 +78,90 @@ class BufferTest {
         assertEquals(0, testBuffer.getPins());
         assertNotEquals(0, testBuffer.getLastTimeUnpinned());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testExclusiveLatchBlocksSharedLatch() throws Exception {
+        long exclusiveStamp = testBuffer.latchExclusive();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Integer> reader = executor.submit(() -> {
+            long sharedStamp = testBuffer.latchShared();
+            try {
+                return testBuffer.getContents().getInt(80);
+            }
+            finally {
+                testBuffer.unlatch(sharedStamp);
+            }
+        });
+
+        assertThrows(TimeoutException.class, () -> reader.get(100, TimeUnit.MILLISECONDS));
+
+        testBuffer.getContents().setInt(80, 678);
+        testBuffer.unlatch(exclusiveStamp);
+        assertEquals(678, reader.get(1, TimeUnit.SECONDS));
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testOptimisticReadRetriedAfterWrite() {
+        testBuffer.getContents().setInt(80, 1);
+        int value = testBuffer.readOptimistically(page -> page.getInt(80));
+        assertEquals(1, value);
+        assertEquals(0, testBuffer.getOptimisticReadRetryCounter());
+
+        // The first try races a writer, so it gets thrown away and redone with the shared latch
+        AtomicInteger numTries = new AtomicInteger(0);
+        value = testBuffer.readOptimistically(page -> {
+            if (numTries.incrementAndGet() == 1) {
+                long stamp = testBuffer.latchExclusive();
+                page.setInt(80, 2);
+                testBuffer.unlatch(stamp);
+            }
+
+            return page.getInt(80);
+        });
+
+        assertEquals(2, value);
+        assertEquals(2, numTries.get());
+        assertEquals(1, testBuffer.getOptimisticReadRetryCounter());
+    }
+
+    @Test
+    public void testConcurrentOptimisticReaders() throws Exception {
+        String[] values = {"first value of the page", "another value entirely!"};
+        testBuffer.getContents().setString(20, values[0]);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            readers.add(executor.submit(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    String read = testBuffer.readOptimistically(page -> page.getString(20));
+                    if (!read.equals(values[0]) && !read.equals(values[1]))
+                        return false;
+                }
+
+                return true;
+            }));
+        }
+
+        Future<?> writer = executor.submit(() -> {
+            for (int j = 0; j < 2000; j++) {
+                long stamp = testBuffer.latchExclusive();
+                try {
+                    testBuffer.getContents().setString(20, values[j % 2]);
+                }
+                finally {
+                    testBuffer.unlatch(stamp);
+                }
+            }
+        });
+
+        writer.get(10, TimeUnit.SECONDS);
+        for (Future<Boolean> reader : readers)
+            assertTrue(reader.get(10, TimeUnit.SECONDS));
+
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,197 @@
+package buffer;
+
+import file.BlockId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import server.ConfigFetcher;
+import server.ShiDB;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every test here uses a pool of 3 buffers, fills it up, and then checks which block gets replaced when a 4th block
+ * is pinned. Which block is still cached is checked through the BufferMgr hit counter
+ */
+class ReplacementPolicyTest {
+    private ShiDB shiDB;
+    private final String testFile = "replacement_policy_test_file";
+    private final int numBuffers = 3;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        shiDB = new ShiDB("ReplacementPolicy-unit-test", ConfigFetcher.getDBFileBlockSize());
+    }
+
+    private BufferMgr createBufferMgr(BufferMgr.bufferSelectionStrategy strategy) {
+        return new BufferMgr(shiDB.getFileMgr(), shiDB.getLogMgr(), numBuffers, strategy);
+    }
+
+    private BlockId block(int blockNum) {
+        return new BlockId(testFile, blockNum);
+    }
+
+    private void pinAndUnpin(BufferMgr bufferMgr, int... blockNums) {
+        for (int blockNum : blockNums)
+            bufferMgr.unpinBuffer(bufferMgr.pinBuffer(block(blockNum)));
+    }
+
+    private boolean isCached(BufferMgr bufferMgr, int blockNum) {
+        long hitsBefore = bufferMgr.getCacheHitCounter();
+        pinAndUnpin(bufferMgr, blockNum);
+        return bufferMgr.getCacheHitCounter() > hitsBefore;
+    }
+
+    @Test
+    @DisplayName("FIFO replaces the block that was read in first, even if it was used recently")
+    public void testFifo() {
+        BufferMgr bufferMgr = createBufferMgr(BufferMgr.bufferSelectionStrategy.FIFO);
+        pinAndUnpin(bufferMgr, 1, 2, 3, 1);
+        pinAndUnpin(bufferMgr, 4);
+
+        assertTrue(isCached(bufferMgr, 3));
+        assertTrue(isCached(bufferMgr, 2));
+        assertFalse(isCached(bufferMgr, 1));
+    }
+
+    @Test
+    @DisplayName("LRU replaces the block that was unpinned least recently")
+    public void testLru() {
+        BufferMgr bufferMgr = createBufferMgr(BufferMgr.bufferSelectionStrategy.LRU);
+        Buffer buffer1 = bufferMgr.pinBuffer(block(1));
+        Buffer buffer2 = bufferMgr.pinBuffer(block(2));
+        Buffer buffer3 = bufferMgr.pinBuffer(block(3));
+
+        bufferMgr.unpinBuffer(buffer2);
+        bufferMgr.unpinBuffer(buffer3);
+        bufferMgr.unpinBuffer(buffer1);
+
+        assertSame(buffer2, bufferMgr.pinBuffer(block(4)));
+        assertEquals(block(4), buffer2.getBlock());
+    }
+
+    @Test
+    @DisplayName("Clock gives buffers that were pinned since the last sweep a second chance")
+    public void testClock() {
+        BufferMgr bufferMgr = createBufferMgr(BufferMgr.bufferSelectionStrategy.CLOCK);
+        pinAndUnpin(bufferMgr, 1, 2, 3);
+
+        // Every buffer was referenced, so the hand clears all of them and comes back around to block 1's buffer
+        pinAndUnpin(bufferMgr, 4);
+        assertFalse(isCached(bufferMgr, 1));
+
+        // Pinning block 1 again replaced block 2 (the next one after the hand). Now block 3 is the only
+        // buffer that hasn't been referenced since the hand last passed it, so it goes next
+        pinAndUnpin(bufferMgr, 5);
+        assertTrue(isCached(bufferMgr, 1));
+        assertFalse(isCached(bufferMgr, 3));
+    }
+
+    @Test
+    @DisplayName("RING_BUFFER takes the first unpinned buffer after the last replaced one")
+    public void testRingBuffer() {
+        BufferMgr bufferMgr = createBufferMgr(BufferMgr.bufferSelectionStrategy.RING_BUFFER);
+        Buffer buffer1 = bufferMgr.pinBuffer(block(1));
+        Buffer buffer2 = bufferMgr.pinBuffer(block(2));
+        Buffer buffer3 = bufferMgr.pinBuffer(block(3));
+        bufferMgr.unpinBuffer(buffer1);
+        bufferMgr.unpinBuffer(buffer2);
+        bufferMgr.unpinBuffer(buffer3);
+
+        assertSame(buffer1, bufferMgr.pinBuffer(block(4)));
+        assertSame(buffer2, bufferMgr.pinBuffer(block(5)));
+        assertSame(buffer3, bufferMgr.pinBuffer(block(6)));
+    }
+
+    @Test
+    @DisplayName("LRU-K keeps a block that was used twice over blocks that a scan only touched once")
+    public void testLruK() {
+        BufferMgr bufferMgr = createBufferMgr(BufferMgr.bufferSelectionStrategy.LRU_K);
+        pinAndUnpin(bufferMgr, 1, 1, 2, 3);
+
+        // Sequential scan over blocks that are never used again
+        pinAndUnpin(bufferMgr, 4, 5, 6, 7);
+
+        assertTrue(isCached(bufferMgr, 1));
+        assertTrue(isCached(bufferMgr, 7));
+        assertFalse(isCached(bufferMgr, 2));
+    }
+
+    @Test
+    @DisplayName("LRU-K doesn't count prefetching a block as a reference to it")
+    public void testLruKPrefetchIsNotAReference() throws Exception {
+        for (int i = 0; i < 5; i++)
+            shiDB.getFileMgr().append(testFile);
+
+        BufferMgr bufferMgr = createBufferMgr(BufferMgr.bufferSelectionStrategy.LRU_K);
+        assertEquals(1, bufferMgr.prefetch(testFile, 1, 1).get(1, TimeUnit.SECONDS));
+
+        // A scan gets to the prefetched block once, block 2 is used twice
+        pinAndUnpin(bufferMgr, 1, 2, 2, 3);
+
+        // Block 1 only has the one reference from the scan, so it goes before block 3 that was used after it
+        pinAndUnpin(bufferMgr, 4);
+        assertFalse(isCached(bufferMgr, 1));
+        assertTrue(isCached(bufferMgr, 2));
+    }
+
+    @Test
+    @DisplayName("2Q moves a block that is read again after replacement into Am, out of reach of scans")
+    public void testTwoQueue() {
+        BufferMgr bufferMgr = createBufferMgr(BufferMgr.bufferSelectionStrategy.TWO_QUEUE);
+        pinAndUnpin(bufferMgr, 1, 2, 3);
+
+        // Block 1 gets replaced out of A1in, and then comes right back, which promotes it to Am
+        pinAndUnpin(bufferMgr, 4);
+        assertFalse(isCached(bufferMgr, 1));
+
+        // Sequential scan over blocks that are never used again
+        pinAndUnpin(bufferMgr, 5, 6, 7, 8, 9);
+
+        assertTrue(isCached(bufferMgr, 1));
+        assertTrue(isCached(bufferMgr, 9));
+        assertFalse(isCached(bufferMgr, 5));
+    }
+
+    @Test
+    @DisplayName("Every policy fails to choose a buffer when they are all pinned")
+    public void testAllBuffersPinned() {
+        for (BufferMgr.bufferSelectionStrategy strategy : BufferMgr.bufferSelectionStrategy.values()) {
+            ReplacementPolicy policy = ReplacementPolicy.create(strategy, numBuffers);
+            BufferMgr bufferMgr = createBufferMgr(strategy);
+
+            for (int i = 0; i < numBuffers; i++) {
+                Buffer buffer = bufferMgr.pinBuffer(block(i));
+                policy.bufferPinned(buffer);
+            }
+
+            assertTrue(policy.chooseVictim().hasFailed(), strategy + " chose a pinned buffer");
+        }
+    }
+
+    @Test
+    @DisplayName("Every policy replaces a clean buffer before a dirty one, as long as one is close enough in line")
+    public void testCleanVictimsPreferred() {
+        for (BufferMgr.bufferSelectionStrategy strategy : BufferMgr.bufferSelectionStrategy.values()) {
+            BufferMgr bufferMgr = createBufferMgr(strategy);
+            Buffer buffer1 = bufferMgr.pinBuffer(block(1));
+            Buffer buffer2 = bufferMgr.pinBuffer(block(2));
+            Buffer buffer3 = bufferMgr.pinBuffer(block(3));
+
+            // Block 1 is first in line for every policy, but it's the only dirty one
+            buffer1.setModified(1, -1);
+            bufferMgr.unpinBuffer(buffer1);
+            bufferMgr.unpinBuffer(buffer2);
+            bufferMgr.unpinBuffer(buffer3);
+
+            pinAndUnpin(bufferMgr, 4);
+
+            // The background page writer might have cleaned block 1 in the meantime, which is fine too
+            assertEquals(0, bufferMgr.getDirtyReplacementCounter(), strategy + " replaced a dirty buffer");
+            bufferMgr.close();
+        }
+    }
+}
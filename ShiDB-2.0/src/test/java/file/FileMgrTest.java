@@ -6,13 +6,20 @@ import org.junit.jupiter.api.Test;
 
 import server.ShiDB;
 
+import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * This isn't a technically a unit test per se because we are testing both the FileMgr
@@ -168,5 +175,100 @@ class FileMgrTest {
         assertEquals(page1.getDateTime(position3), page2.getDateTime(position3));
         assertEquals(page1.getDouble(position4), page2.getDouble(position4));
     }
-    
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Many threads reading and writing different blocks of the same file at the same time")
+    public void testConcurrentBlockReadsAndWrites() throws Exception {
+        String filename = "concurrent_testfile";
+        int numThreads = 8;
+        int blocksPerThread = 25;
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int threadNum = t;
+            results.add(executor.submit(() -> {
+                Page writePage = new Page(fileMgr.getBlocksize());
+                Page readPage = new Page(fileMgr.getBlocksize());
+
+                for (int i = 0; i < blocksPerThread; i++) {
+                    int blockNum = threadNum * blocksPerThread + i;
+                    BlockId blk = new BlockId(filename, blockNum);
+
+                    writePage.setInt(0, blockNum);
+                    writePage.setString(Integer.BYTES, "block " + blockNum);
+                    fileMgr.writePageToDisk(blk, writePage);
+
+                    fileMgr.readFromDiskToPage(blk, readPage);
+                    assertEquals(blockNum, readPage.getInt(0));
+                    assertEquals(writePage.getString(Integer.BYTES), readPage.getString(Integer.BYTES));
+                }
+            }));
+        }
+
+        for (Future<?> result : results)
+            result.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(numThreads * blocksPerThread, fileMgr.numBlocksInFile(filename));
+        fileMgr.deleteFile(filename);
+    }
+
+    @Test
+    @DisplayName("Check that deleting a file actually removes it from the database directory")
+    public void testDeleteFile() {
+        String filename = "delete_testfile";
+        fileMgr.append(filename);
+        assertTrue(new File("FileMgr-Unit-test", filename).exists());
+
+        fileMgr.deleteFile(filename);
+        assertFalse(new File("FileMgr-Unit-test", filename).exists());
+
+        // The file gets recreated from scratch if it gets used again
+        assertEquals(0, fileMgr.numBlocksInFile(filename));
+        fileMgr.deleteFile(filename);
+    }
+
+    @Test
+    @DisplayName("Check that only the log is synced on flush, data files at checkpoints, and temp files never")
+    public void testDurabilityModes() {
+        String logFile = shiDB.getLogMgr().getLogFile();
+        String dataFile = "durability_testfile";
+        String tempFile = "temp_durability_testfile";
+
+        assertEquals(FileDurability.SYNC_ON_FLUSH, fileMgr.getDurability(logFile));
+        assertEquals(FileDurability.SYNC_AT_CHECKPOINT, fileMgr.getDurability(dataFile));
+        assertEquals(FileDurability.NO_SYNC, fileMgr.getDurability(tempFile));
+
+        fileMgr.checkpoint();
+        fileMgr.resetFileMgrStatistics();
+
+        Page page = new Page(fileMgr.getBlocksize());
+        page.setInt(0, 42);
+        fileMgr.writePageToDisk(new BlockId(dataFile, 0), page);
+        fileMgr.writePageToDisk(new BlockId(dataFile, 1), page);
+        fileMgr.writePageToDisk(new BlockId(tempFile, 0), page);
+
+        // Flushing a data or temp file doesn't sync anything, only the log gets synced on flush
+        fileMgr.flushFile(dataFile);
+        fileMgr.flushFile(tempFile);
+        assertEquals(0, fileMgr.getForceCounter());
+
+        shiDB.getLogMgr().appendRecord(new byte[] {1, 2, 3});
+        shiDB.getLogMgr().flush();
+        assertEquals(1, fileMgr.getForceCounter());
+
+        // The data file gets synced once for both writes. The temp file still doesn't get synced
+        fileMgr.checkpoint();
+        assertEquals(2, fileMgr.getForceCounter());
+
+        // Nothing was written since, so there is nothing left to sync. The log doesn't even get written again since
+        // everything in it is already on disk
+        fileMgr.checkpoint();
+        shiDB.getLogMgr().flush();
+        assertEquals(2, fileMgr.getForceCounter());
+
+        fileMgr.deleteFile(dataFile);
+        fileMgr.deleteFile(tempFile);
+    }
+}
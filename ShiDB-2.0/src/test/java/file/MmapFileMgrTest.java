@@ -0,0 +1,78 @@
+package file;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MmapFileMgrTest {
+    private MmapFileMgr fileMgr;
+    private final String testFileName = "mmap_testfile";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fileMgr = new MmapFileMgr(new File("MmapFileMgr-Unit-test"), 400);
+        fileMgr.deleteFile(testFileName);
+    }
+
+    private Page writeBlock(BlockId blk, int val, String str) {
+        Page page = new Page(fileMgr.getBlocksize());
+        page.setInt(0, val);
+        page.setString(Integer.BYTES, str);
+        fileMgr.writePageToDisk(blk, page);
+
+        return page;
+    }
+
+    @Test
+    @DisplayName("Blocks written through the file channel can be read back through the mapping")
+    public void testReadThroughMapping() {
+        BlockId blk = new BlockId(testFileName, 0);
+        Page written = writeBlock(blk, 345, "Mapped, not read");
+
+        Page page = new Page(fileMgr.getBlocksize());
+        fileMgr.readFromDiskToPage(blk, page);
+
+        assertEquals(345, page.getInt(0));
+        assertEquals(written.getString(Integer.BYTES), page.getString(Integer.BYTES));
+    }
+
+    @Test
+    @DisplayName("Mapped pages are zero copy views that see later writes and can't be modified")
+    public void testMappedPage() {
+        BlockId blk = new BlockId(testFileName, 0);
+        writeBlock(blk, 1, "first");
+
+        Page mappedPage = fileMgr.getMappedPage(blk);
+        assertEquals(1, mappedPage.getInt(0));
+
+        // The mapping shares the OS page cache with the file channel, so the view sees the new write right away
+        writeBlock(blk, 2, "second");
+        assertEquals(2, mappedPage.getInt(0));
+
+        assertThrows(ReadOnlyBufferException.class, () -> mappedPage.setInt(0, 3));
+    }
+
+    @Test
+    @DisplayName("Growing the file remaps it so the new blocks can be read through the mapping")
+    public void testRemapAfterGrowth() {
+        writeBlock(new BlockId(testFileName, 0), 10, "block 0");
+        assertEquals(10, fileMgr.getMappedPage(new BlockId(testFileName, 0)).getInt(0));
+
+        BlockId appended = fileMgr.append(testFileName);
+        assertEquals(1, appended.blockNum());
+        writeBlock(appended, 11, "block 1");
+
+        BlockId pastAppend = new BlockId(testFileName, 5);
+        writeBlock(pastAppend, 15, "block 5");
+
+        assertEquals(11, fileMgr.getMappedPage(appended).getInt(0));
+        assertEquals(15, fileMgr.getMappedPage(pastAppend).getInt(0));
+        assertThrows(IllegalArgumentException.class, () -> fileMgr.getMappedPage(new BlockId(testFileName, 6)));
+    }
+}
@@ -0,0 +1,81 @@
+package file;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.ShiDB;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageArenaTest {
+    private ShiDB shiDB;
+    private FileMgr fileMgr;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        shiDB = new ShiDB("FileMgr-Unit-test", 600);
+        fileMgr = shiDB.getFileMgr();
+    }
+
+    @Test
+    @DisplayName("Pages of an arena don't overlap, and two pages of the same slot share their bytes")
+    public void testPagesAreSlicesOfTheArena() {
+        PageArena pageArena = new PageArena(4, fileMgr.getBlocksize(), "");
+        Page firstPage = pageArena.newPage(0);
+        Page secondPage = pageArena.newPage(1);
+
+        // Right at the end of the first page, and right at the start of the second
+        firstPage.setInt(fileMgr.getBlocksize() - Integer.BYTES, 111);
+        secondPage.setInt(0, 222);
+
+        assertEquals(111, firstPage.getInt(fileMgr.getBlocksize() - Integer.BYTES));
+        assertEquals(222, secondPage.getInt(0));
+        assertEquals(0, firstPage.getInt(0));
+
+        assertEquals(222, pageArena.newPage(1).getInt(0));
+    }
+
+    @Test
+    @DisplayName("Write a page of an arena to disk, then read it back into another page of the arena")
+    public void testArenaPageRoundTrip() {
+        PageArena pageArena = new PageArena(2, fileMgr.getBlocksize(), "");
+        BlockId blk = new BlockId("testfile", 3);
+
+        Page page1 = pageArena.newPage(0);
+        String writeString = "Off heap, but still the same page";
+        page1.setString(20, writeString);
+        page1.setInt(300, 345);
+        fileMgr.writePageToDisk(blk, page1);
+
+        Page page2 = pageArena.newPage(1);
+        fileMgr.readFromDiskToPage(blk, page2);
+
+        assertEquals(page1.getString(20), page2.getString(20));
+        assertEquals(345, page2.getInt(300));
+    }
+
+    @Test
+    @DisplayName("Without a hugetlbfs mount, the arena falls back to regular memory")
+    public void testHugePageFallback() {
+        assertFalse(new PageArena(2, fileMgr.getBlocksize(), "").isHugePageBacked());
+
+        // The directory of the database files is on a regular filesystem
+        PageArena pageArena = new PageArena(2, fileMgr.getBlocksize(), "FileMgr-Unit-test");
+        assertFalse(pageArena.isHugePageBacked());
+
+        pageArena.newPage(1).setInt(0, 7);
+        assertEquals(7, pageArena.newPage(1).getInt(0));
+    }
+
+    @Test
+    @DisplayName("Asking for a page outside of the arena throws")
+    public void testPageOutOfRange() {
+        PageArena pageArena = new PageArena(2, fileMgr.getBlocksize(), "");
+
+        assertThrows(IndexOutOfBoundsException.class, () -> pageArena.newPage(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> pageArena.newPage(-1));
+    }
+}
@@ -0,0 +1,109 @@
+package file;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageTest {
+    private static final int BLOCK_SIZE = 400;
+
+    private Page page;
+
+    @BeforeEach
+    void setUp() {
+        page = new Page(BLOCK_SIZE);
+    }
+
+    @Test
+    @DisplayName("Strings and bytes read back exactly what was written, without the length in front")
+    public void testStringRoundTrip() {
+        page.setString(88, "The database name is a pun, isn't it?");
+        page.setBytes(200, new byte[] {1, 2, 3});
+
+        assertEquals("The database name is a pun, isn't it?", page.getString(88));
+        assertArrayEquals(new byte[] {1, 2, 3}, page.getBytes(200));
+
+        // A value that runs off the end of the page doesn't fit, length and all
+        assertThrows(RuntimeException.class, () -> page.setBytes(BLOCK_SIZE - 6, new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    @DisplayName("Compare a string in the page against keys in place, same ordering as String.compareTo()")
+    public void testCompareString() {
+        page.setString(0, "banana");
+        page.setString(100, "bandana");
+
+        String[] keys = {"banana", "banan", "bananas", "apple", "cherry", "", "bandana"};
+        for (String key : keys)
+            assertEquals(Integer.signum("banana".compareTo(key)), Integer.signum(page.compareString(0, key)), key);
+
+        Page otherPage = new Page(BLOCK_SIZE);
+        otherPage.setString(40, "banana");
+        assertEquals(0, page.compareString(0, otherPage, 40));
+        assertTrue(page.compareString(0, page, 100) < 0);
+        assertTrue(page.compareString(100, otherPage, 40) > 0);
+    }
+
+    @Test
+    @DisplayName("Copy a value into a buffer the caller already has")
+    public void testCopyBytes() {
+        page.setString(12, "copy me");
+
+        byte[] destination = new byte[16];
+        int length = page.copyBytes(12, destination);
+        assertEquals("copy me", new String(destination, 0, length, Page.CHARSET));
+
+        assertThrows(IllegalArgumentException.class, () -> page.copyBytes(12, new byte[3]));
+    }
+
+    @Test
+    @DisplayName("A string view reads straight out of the page")
+    public void testStringView() {
+        page.setString(30, "a view of the page");
+
+        CharSequence view = page.getStringView(30);
+        assertEquals(18, view.length());
+        assertEquals('v', view.charAt(2));
+        assertEquals("view", view.subSequence(2, 6).toString());
+        assertEquals("a view of the page", view.toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> view.charAt(18));
+
+        // It's a view, so it sees later changes
+        page.setString(30, "b view of the page");
+        assertEquals('b', view.charAt(0));
+    }
+
+    @Test
+    @DisplayName("Comparing keys in place doesn't allocate anything, unlike getString()")
+    public void testCompareStringDoesNotAllocate() {
+        page.setString(0, "some key in the middle of a B-tree node");
+        String key = "some key in the middle of a B-tree leaf";
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Let everything get loaded and compiled before measuring
+        int numComparisons = 100_000;
+        int result = 0;
+        for (int i = 0; i < numComparisons; i++)
+            result += Integer.signum(page.compareString(0, key));
+
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < numComparisons; i++)
+            result += Integer.signum(page.compareString(0, key));
+        long compareAllocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < numComparisons; i++)
+            result += Integer.signum(page.getString(0).compareTo(key));
+        long getStringAllocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        assertTrue(result > 0);
+        assertTrue(compareAllocated < 1024, "compareString allocated " + compareAllocated + " bytes");
+        assertTrue(getStringAllocated > numComparisons, "getString allocated " + getStringAllocated + " bytes");
+    }
+}
@@ -10,7 +10,11 @@ import server.ShiDB;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -33,14 +37,18 @@ class LogMgrTest {
         return byteArr;
     }
 
-    private void createRecords(int start, int end) {
+    private List<Long> createRecords(int start, int end) {
+        List<Long> lsns = new ArrayList<>();
         System.out.print("LSN's: ");
         for (int i = start; i < end; i++) {
             byte[] record = createLogRecord("record" + i, i + 100);
             long lsn = logMgr.appendRecord(record);
+            lsns.add(lsn);
             System.out.print(lsn + " ");
         }
         System.out.println();
+
+        return lsns;
     }
 
     public static void clearFile(String testDir, String filename) throws IOException {
@@ -98,7 +106,7 @@ class LogMgrTest {
 
         createRecords(round2 + 1, round2 + round3 + 1);
 
-        // The call to iterator implicitly calls flush()
+        // The iterator also picks up the records that haven't been written to the disk yet
         Iterator<byte[]> logIterator = logMgr.iterator();
         while(logIterator.hasNext()) {
             records.add(logIterator.next());
@@ -106,4 +114,202 @@ class LogMgrTest {
 
         assertEquals(numExpectedRecords, records.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test flushing an LSN that is already on disk doesn't write anything")
+    public void testFlushOfSavedLsn() {
+        List<Long> lsns = createRecords(1, 6);
+        logMgr.flush(lsns.get(2));
+
+        long numWrites = logMgr.getLogWriteCounter();
+        long numRequests = logMgr.getFlushRequestCounter();
+
+        // The whole page went out with the 3rd record, so all 5 are on disk already
+        logMgr.flush(lsns.get(4));
+        logMgr.flush(lsns.get(0));
+        logMgr.flush(0);
+
+        assertEquals(numWrites, logMgr.getLogWriteCounter());
+        assertEquals(numRequests, logMgr.getFlushRequestCounter());
+    }
+
+    @Test
+    @DisplayName("Test concurrent flushes get batched into group commits")
+    public void testGroupCommit() throws InterruptedException {
+        String groupCommitLogFile = "groupcommit.log";
+        fileMgr.deleteFile(groupCommitLogFile);
+
+        // Long window so every committer makes it into the leader's batch
+        int numCommitters = 8;
+        LogMgr groupCommitLogMgr = new LogMgr(fileMgr, groupCommitLogFile, 200_000, numCommitters);
+        long numWritesBefore = groupCommitLogMgr.getLogWriteCounter();
+
+        CountDownLatch startLatch = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        Thread[] committers = new Thread[numCommitters];
+
+        for (int i = 0; i < numCommitters; i++) {
+            int committerNum = i;
+            committers[i] = new Thread(() -> {
+                try {
+                    startLatch.await();
+                    long lsn = groupCommitLogMgr.appendRecord(createLogRecord("commit" + committerNum, committerNum));
+                    groupCommitLogMgr.flush(lsn);
+                }
+                catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+            committers[i].start();
+        }
+
+        startLatch.countDown();
+        for (Thread committer : committers)
+            committer.join();
+
+        assertTrue(failures.isEmpty(), "Committer failed: " + failures.peek());
+        assertTrue(groupCommitLogMgr.getLogWriteCounter() - numWritesBefore < numCommitters,
+                "Expected the commits to share log writes, but got "
+                        + (groupCommitLogMgr.getLogWriteCounter() - numWritesBefore) + " writes");
+
+        // Every commit has to actually be in the log on disk
+        int numRecords = 0;
+        Iterator<byte[]> logIterator = groupCommitLogMgr.iterator();
+        while (logIterator.hasNext()) {
+            logIterator.next();
+            numRecords++;
+        }
+        assertEquals(numCommitters, numRecords);
+
+        fileMgr.deleteFile(groupCommitLogFile);
+    }
+
+    @Test
+    @DisplayName("Test appends keep going across blocks while the log writer writes the tail out")
+    public void testLogTailRing() {
+        String ringLogFile = "ring.log";
+        fileMgr.deleteFile(ringLogFile);
+
+        // Only 2 log pages, so the appender has to keep handing pages back and forth with the writer
+        int numRecords = 200;
+        LogMgr ringLogMgr = new LogMgr(fileMgr, ringLogFile, 0, 64, 2);
+        long previousLSN = 0;
+        for (int i = 0; i < numRecords; i++) {
+            long lsn = ringLogMgr.appendRecord(createLogRecord("record" + i, i));
+            assertTrue(lsn > previousLSN);
+            previousLSN = lsn;
+        }
+
+        // Nothing has been asked to be on disk yet, but the sealed pages still get written in the background
+        ringLogMgr.flush();
+        int numBlocks = fileMgr.numBlocksInFile(ringLogFile);
+        assertTrue(numBlocks > 2, "Expected the records to span more than the ring, but got " + numBlocks);
+        assertTrue(ringLogMgr.getLogWriteCounter() >= numBlocks);
+
+        int numRecordsRead = 0;
+        Iterator<byte[]> logIterator = ringLogMgr.iterator();
+        while (logIterator.hasNext()) {
+            logIterator.next();
+            numRecordsRead++;
+        }
+        assertEquals(numRecords, numRecordsRead);
+
+        ringLogMgr.close();
+        assertThrows(IllegalStateException.class, () -> ringLogMgr.appendRecord(createLogRecord("closed", 0)));
+
+        // Reopening picks up where the last block left off, LSNs included
+        LogMgr reopenedLogMgr = new LogMgr(fileMgr, ringLogFile, 0, 64, 2);
+        assertTrue(reopenedLogMgr.appendRecord(createLogRecord("reopened", 0)) > previousLSN);
+
+        numRecordsRead = 0;
+        logIterator = reopenedLogMgr.iterator();
+        while (logIterator.hasNext()) {
+            logIterator.next();
+            numRecordsRead++;
+        }
+        assertEquals(numRecords + 1, numRecordsRead);
+        reopenedLogMgr.close();
+
+        fileMgr.deleteFile(ringLogFile);
+    }
+
+    @Test
+    @DisplayName("Test the read ahead iterators return every record, newest first, with the right contents")
+    public void testReadAheadIterators() {
+        int numRecords = 100;
+        List<Long> lsns = createRecords(0, numRecords);
+
+        // Get some of the records written out, and leave the rest in memory
+        logMgr.flush(lsns.get(numRecords / 2));
+
+        // Small chunks so the iterator has to go through a few of them
+        logMgr.setReadAheadBlocks(2);
+        long numBlocksReadBefore = fileMgr.getBlocksReadCounter();
+
+        Iterator<byte[]> logIterator = logMgr.iterator();
+        for (int i = numRecords - 1; i >= 0; i--) {
+            assertTrue(logIterator.hasNext());
+            assertArrayEquals(createLogRecord("record" + i, i + 100), logIterator.next());
+        }
+        assertFalse(logIterator.hasNext());
+
+        // Same records without copying them
+        Iterator<ByteBuffer> bufferIterator = logMgr.bufferIterator();
+        for (int i = numRecords - 1; i >= 0; i--) {
+            ByteBuffer record = bufferIterator.next();
+            assertTrue(record.isReadOnly());
+            assertEquals(ByteBuffer.wrap(createLogRecord("record" + i, i + 100)), record);
+        }
+        assertFalse(bufferIterator.hasNext());
+
+        // Every block on disk only got read once per iterator, even though they were read a chunk at a time
+        long numBlocksRead = fileMgr.getBlocksReadCounter() - numBlocksReadBefore;
+        assertTrue(numBlocksRead <= 2L * fileMgr.numBlocksInFile(logMgr.getLogFile()));
+    }
+
+    @Test
+    @DisplayName("Test reading a record by its LSN, and iterating back from it, whether it's on disk or in memory")
+    public void testReadAtLsn() {
+        String lsnLogFile = "lsn.log";
+        fileMgr.deleteFile(lsnLogFile);
+
+        int numRecords = 100;
+        LogMgr lsnLogMgr = new LogMgr(fileMgr, lsnLogFile, 0, 64, 2);
+        List<Long> lsns = new ArrayList<>();
+        for (int i = 0; i < numRecords; i++)
+            lsns.add(lsnLogMgr.appendRecord(createLogRecord("record" + i, i)));
+
+        // With only 2 log pages, the early records are only on disk and the last ones are only in memory
+        for (int i = 0; i < numRecords; i++)
+            assertArrayEquals(createLogRecord("record" + i, i), lsnLogMgr.readAt(lsns.get(i)));
+
+        int startRecord = 37;
+        Iterator<byte[]> logIterator = lsnLogMgr.iteratorFrom(lsns.get(startRecord));
+        for (int i = startRecord; i >= 0; i--)
+            assertArrayEquals(createLogRecord("record" + i, i), logIterator.next());
+        assertFalse(logIterator.hasNext());
+
+        // Starting from the newest record gets the part of the log that's only in memory too
+        logIterator = lsnLogMgr.iteratorFrom(lsns.getLast());
+        for (int i = numRecords - 1; i >= 0; i--)
+            assertArrayEquals(createLogRecord("record" + i, i), logIterator.next());
+        assertFalse(logIterator.hasNext());
+
+        assertThrows(IllegalArgumentException.class, () -> lsnLogMgr.readAt(lsns.getLast() + 1));
+        assertThrows(IllegalArgumentException.class, () -> lsnLogMgr.readAt(0));
+
+        // An LSN that points into the middle of a record doesn't name a record either, on disk or in memory
+        assertThrows(IllegalArgumentException.class, () -> lsnLogMgr.readAt(lsns.get(5) - 2));
+        assertThrows(IllegalArgumentException.class, () -> lsnLogMgr.readAt(lsns.getLast() - 2));
+        assertThrows(IllegalArgumentException.class, () -> lsnLogMgr.iteratorFrom(lsns.get(5) - 2));
+
+        // LSNs stay good after a restart
+        lsnLogMgr.close();
+        LogMgr reopenedLogMgr = new LogMgr(fileMgr, lsnLogFile, 0, 64, 2);
+        assertArrayEquals(createLogRecord("record" + 99, 99), reopenedLogMgr.readAt(lsns.get(99)));
+        assertArrayEquals(createLogRecord("record" + 5, 5), reopenedLogMgr.readAt(lsns.get(5)));
+        reopenedLogMgr.close();
+
+        fileMgr.deleteFile(lsnLogFile);
+    }
+}
@@ -10,16 +10,21 @@ import simpledb.log.LogMgr;
  * the number of times the buffer has been pinned,
  * whether its contents have been modified,
  * and if so, the id and lsn of the modifying transaction.
+ * The last bytes of the page hold its page LSN:
+ * the LSN of the latest log record whose change is in the page.
  * @author Edward Sciore
  */
 public class Buffer {
+   public static final int PAGE_LSN_SIZE = Long.BYTES;
    private FileMgr fm;
    private LogMgr lm;
    private Page contents;
    private BlockId blk = null;
+   private BlockId loadingblk = null;
    private int pins = 0;
    private int txnum = -1;
-   private int lsn = -1;
+   private long lsn = -1;
+   private volatile long recLSN = -1;
 
    public Buffer(FileMgr fm, LogMgr lm) {
       this.fm = fm;
@@ -40,10 +45,55 @@ public class Buffer {
       return blk;
    }
 
-   public void setModified(int txnum, int lsn) {
+   /**
+    * Mark the buffer as modified by the specified transaction.
+    * If the change was logged, the LSN of its log record
+    * also becomes the page LSN.
+    * @param txnum the id of the modifying transaction
+    * @param lsn the LSN of the log record, or -1 if not logged
+    */
+   public void setModified(int txnum, long lsn) {
       this.txnum = txnum;
-      if (lsn >= 0)
+      if (lsn >= 0) {
          this.lsn = lsn;
+         contents.setLong(pageLSNOffset(), lsn);
+      }
+   }
+
+   /**
+    * Note that a change to the page is about to be logged.
+    * If the page has no unflushed logged changes yet,
+    * the specified LSN becomes its recovery LSN:
+    * every change to the page that is not on disk
+    * has a later LSN, so recovery can start redoing
+    * the page from there.
+    * The LSN is taken before the change's record is appended,
+    * so a checkpoint never misses a page whose change
+    * is already in the log.
+    * @param lsn the latest LSN in the log
+    */
+   public void setRecoveryLSN(long lsn) {
+      if (recLSN < 0)
+         recLSN = lsn;
+   }
+
+   /**
+    * Return the recovery LSN of the page,
+    * or -1 if it has no unflushed logged changes.
+    * @return the recovery LSN
+    */
+   public long recoveryLSN() {
+      return recLSN;
+   }
+
+   /**
+    * Return the LSN of the latest log record
+    * whose change is in the page.
+    * A page that has never been modified has LSN 0.
+    * @return the page LSN
+    */
+   public long pageLSN() {
+      return contents.getLong(pageLSNOffset());
    }
 
    /**
@@ -60,17 +110,63 @@ public class Buffer {
    }
 
    /**
-    * Reads the contents of the specified block into
-    * the contents of the buffer.
+    * Return the block that is being read into the buffer,
+    * or null if the buffer is not being loaded.
+    * @return the block being loaded
+    */
+   BlockId loadingBlock() {
+      return loadingblk;
+   }
+
+   /**
+    * Return true if a block is being read into the buffer.
+    * @return true if the buffer is being loaded
+    */
+   boolean isLoading() {
+      return loadingblk != null;
+   }
+
+   /**
+    * Reserve the buffer for the specified block.
+    * The buffer manager calls this while holding its monitor,
+    * and then calls load() without it.
+    * Until the load is done, the buffer stands for both
+    * its old block and the new one, so nobody reads
+    * the old block from disk before its changes are written.
+    * @param b a reference to the data block
+    */
+   void reserve(BlockId b) {
+      loadingblk = b;
+   }
+
+   /**
+    * Read the contents of the reserved block into the buffer.
     * If the buffer was dirty, then its previous contents
     * are first written to disk.
-    * @param b a reference to the data block
     */
-   void assignToBlock(BlockId b) {
+   void load() {
       flush();
-      blk = b;
-      fm.read(blk, contents);
-      pins = 0;
+      fm.read(loadingblk, contents);
+   }
+
+   /**
+    * Assign the reserved block to the buffer, once it is loaded.
+    */
+   void finishLoad() {
+      blk = loadingblk;
+      loadingblk = null;
+   }
+
+   /**
+    * Give up on loading the reserved block.
+    * If the old contents could not be written, the buffer
+    * keeps its old block. Otherwise the read may have
+    * overwritten the contents, so the buffer holds no block.
+    */
+   void cancelLoad() {
+      loadingblk = null;
+      if (txnum < 0)
+         blk = null;
    }
    
    /**
@@ -81,9 +177,14 @@ public class Buffer {
          lm.flush(lsn);
          fm.write(blk, contents);
          txnum = -1;
+         recLSN = -1;
       }
    }
 
+   private int pageLSNOffset() {
+      return fm.blockSize() - PAGE_LSN_SIZE;
+   }
+
    /**
     * Increase the buffer's pin count.
     */
@@ -1,5 +1,6 @@
 package simpledb.buffer;
 
+import java.util.*;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
@@ -40,12 +41,46 @@ public class BufferMgr {
     * @param txnum the transaction's id number
     */
    public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
+      for (Buffer buff : bufferpool) {
+         waitForLoad(buff);
          if (buff.modifyingTx() == txnum)
          buff.flush();
+      }
    }
    
    
+   /**
+    * Flushes the unpinned buffers whose recovery LSN
+    * is older than the specified LSN.
+    * A checkpoint calls this so that recovery no longer
+    * has to go back that far for the flushed pages.
+    * Pinned buffers are skipped, because their transaction
+    * may be in the middle of changing and logging them.
+    * @param lsn the LSN the recovery LSNs are compared against
+    */
+   public synchronized void flushOlderThan(long lsn) {
+      for (Buffer buff : bufferpool) {
+         long reclsn = buff.recoveryLSN();
+         if (reclsn >= 0 && reclsn < lsn && !buff.isPinned())
+            buff.flush();
+      }
+   }
+   
+   /**
+    * Returns the dirty page table: the blocks of the buffers
+    * that have unflushed logged changes, and their recovery LSNs.
+    * @return the recovery LSN of each dirty block
+    */
+   public synchronized Map<BlockId,Long> dirtyPages() {
+      Map<BlockId,Long> dirtypages = new HashMap<>();
+      for (Buffer buff : bufferpool) {
+         long reclsn = buff.recoveryLSN();
+         if (reclsn >= 0)
+            dirtypages.put(buff.block(), reclsn);
+      }
+      return dirtypages;
+   }
+   
    /**
     * Unpins the specified data buffer. If its pin count
     * goes to zero, then notify any waiting threads.
@@ -64,10 +99,28 @@ public class BufferMgr {
     * waiting until a buffer becomes available.
     * If no buffer becomes available within a fixed 
     * time period, then a {@link BufferAbortException} is thrown.
+    * If the block has to be read in, the read
+    * (and the write of the buffer's old contents)
+    * happens outside the monitor, so that pins of
+    * other blocks do not wait for the disk.
+    * @param blk a reference to a disk block
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk) {
+      Buffer buff = reserve(blk);
+      if (buff.isLoading())
+         load(buff);
+      return buff;
+   }
+   
+   /**
+    * Pins a buffer to the specified block, waiting as described above.
+    * If the block is not in the pool, the buffer is only
+    * reserved for it, and the caller has to load it.
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
+   private synchronized Buffer reserve(BlockId blk) {
       try {
          long timestamp = System.currentTimeMillis();
          Buffer buff = tryToPin(blk);
@@ -84,6 +137,48 @@ public class BufferMgr {
       }
    }  
    
+   /**
+    * Reads the block into a buffer that was reserved for it.
+    * If the read fails, the buffer is unpinned again
+    * and the exception is passed on.
+    * @param buff the reserved buffer
+    */
+   private void load(Buffer buff) {
+      try {
+         buff.load();
+      }
+      catch (RuntimeException e) {
+         cancelLoad(buff);
+         throw e;
+      }
+      finishLoad(buff);
+   }
+   
+   private synchronized void finishLoad(Buffer buff) {
+      buff.finishLoad();
+      notifyAll();
+   }
+   
+   private synchronized void cancelLoad(Buffer buff) {
+      buff.cancelLoad();
+      unpin(buff);
+   }
+   
+   /**
+    * Waits until the buffer is not being loaded.
+    * A buffer being loaded writes out its old contents itself.
+    * @param buff the buffer
+    */
+   private void waitForLoad(Buffer buff) {
+      try {
+         while (buff.isLoading())
+            wait();
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+   }
+   
    private boolean waitingTooLong(long starttime) {
       return System.currentTimeMillis() - starttime > MAX_TIME;
    }
@@ -92,18 +187,22 @@ public class BufferMgr {
     * Tries to pin a buffer to the specified block. 
     * If there is already a buffer assigned to that block
     * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
-    * Returns a null value if there are no available buffers.
+    * otherwise, an unpinned buffer from the pool is chosen
+    * and reserved for the block.
+    * Returns a null value if there are no available buffers,
+    * or if the block is being loaded by another thread.
     * @param blk a reference to a disk block
     * @return the pinned buffer
     */
    private Buffer tryToPin(BlockId blk) {
       Buffer buff = findExistingBuffer(blk);
+      if (buff != null && buff.isLoading())
+         return null;
       if (buff == null) {
          buff = chooseUnpinnedBuffer();
          if (buff == null)
             return null;
-         buff.assignToBlock(blk);
+         buff.reserve(blk);
       }
       if (!buff.isPinned())
          numAvailable--;
@@ -116,6 +215,9 @@ public class BufferMgr {
          BlockId b = buff.block();
          if (b != null && b.equals(blk))
             return buff;
+         b = buff.loadingBlock();
+         if (b != null && b.equals(blk))
+            return buff;
       }
       return null;
    }
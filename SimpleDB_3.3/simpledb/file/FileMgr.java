@@ -24,22 +24,22 @@ public class FileMgr {
          		new File(dbDirectory, filename).delete();
    }
 
-   public synchronized void read(BlockId blk, Page p) {
+   // positional I/O leaves the file pointer alone, so reads and writes
+   // of different blocks need not wait for each other
+   public void read(BlockId blk, Page p) {
       try {
          RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
+         f.getChannel().read(p.contents(), (long) blk.number() * blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
-   public synchronized void write(BlockId blk, Page p) {
+   public void write(BlockId blk, Page p) {
       try {
          RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
+         f.getChannel().write(p.contents(), (long) blk.number() * blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
@@ -79,7 +79,7 @@ public class FileMgr {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
+   private synchronized RandomAccessFile getFile(String filename) throws IOException {
       RandomAccessFile f = openFiles.get(filename);
       if (f == null) {
          File dbTable = new File(dbDirectory, filename);
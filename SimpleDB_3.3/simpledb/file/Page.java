@@ -25,6 +25,14 @@ public class Page {
       bb.putInt(offset, n);
    }
 
+   public long getLong(int offset) {
+      return bb.getLong(offset);
+   }
+
+   public void setLong(int offset, long n) {
+      bb.putLong(offset, n);
+   }
+
    public byte[] getBytes(int offset) {
       bb.position(offset);
       int length = bb.getInt();
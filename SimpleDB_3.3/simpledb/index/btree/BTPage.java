@@ -118,7 +118,9 @@ public class BTPage {
    }
  
    public void format(BlockId blk, int flag) {
-      tx.setInt(blk, 0, flag, false);
+      // The flag is logged because commits no longer flush the
+      // page; everything else is zero, same as a new block on disk.
+      tx.setInt(blk, 0, flag, true);
       tx.setInt(blk, Integer.BYTES, 0, false);  // #records = 0
       int recsize = layout.slotSize();
       for (int pos=2*Integer.BYTES; pos+recsize<=tx.blockSize(); pos += recsize)
@@ -9,12 +9,13 @@ import simpledb.file.*;
  * 
  * @author Edward Sciore
  */
-class LogIterator implements Iterator<byte[]> {
+public class LogIterator implements Iterator<byte[]> {
    private FileMgr fm;
    private BlockId blk;
    private Page p;
    private int currentpos;
    private int boundary;
+   private long lsn;
 
    /**
     * Creates an iterator for the records in the log file,
@@ -49,11 +50,21 @@ class LogIterator implements Iterator<byte[]> {
          blk = new BlockId(blk.fileName(), blk.number()-1);
          moveToBlock(blk);
       }
+      lsn = LogMgr.lsn(blk.number(), currentpos, fm.blockSize());
       byte[] rec = p.getBytes(currentpos);
       currentpos += Integer.BYTES + rec.length;
       return rec;
    }
 
+   /**
+    * Returns the LSN of the log record
+    * most recently returned by next().
+    * @return the LSN of the current log record
+    */
+   public long lsn() {
+      return lsn;
+   }
+
    /**
     * Moves to the specified log block
     * and positions it at the first record in that block
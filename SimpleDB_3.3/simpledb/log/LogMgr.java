@@ -1,6 +1,5 @@
 package simpledb.log;
 
-import java.util.Iterator;
 import simpledb.file.*;
 
 /**
@@ -15,8 +14,10 @@ public class LogMgr {
    private String logfile;
    private Page logpage;
    private BlockId currentblk;
-   private int latestLSN = 0;
-   private int lastSavedLSN = 0;
+   private Page readpage;
+   private int readblknum = -1;
+   private long latestLSN = 0;
+   private long lastSavedLSN = 0;
 
    /**
     * Creates the manager for the specified log file.
@@ -30,6 +31,7 @@ public class LogMgr {
       this.logfile = logfile;
       byte[] b = new byte[fm.blockSize()];
       logpage = new Page(b);
+      readpage = new Page(new byte[fm.blockSize()]);
       int logsize = fm.length(logfile);
       if (logsize == 0)
          currentblk = appendNewBlock();
@@ -37,6 +39,8 @@ public class LogMgr {
          currentblk = new BlockId(logfile, logsize-1);
          fm.read(currentblk, logpage);
       }
+      latestLSN = lsn(currentblk.number(), logpage.getInt(0), fm.blockSize());
+      lastSavedLSN = latestLSN;
    }
 
    /**
@@ -45,12 +49,52 @@ public class LogMgr {
     * All earlier log records will also be written to disk.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
+   public void flush(long lsn) {
       if (lsn >= lastSavedLSN)
          flush();
    }
 
-   public Iterator<byte[]> iterator() {
+   /**
+    * Returns the log record having the specified LSN.
+    * The LSN says which block holds the record and where,
+    * so the record is read directly, without scanning the log.
+    * Records in the current block come from the log buffer;
+    * the most recently read earlier block is kept,
+    * since consecutive reads often land in the same block.
+    * @param lsn the LSN of a log record
+    * @return the bytes of the record
+    */
+   public synchronized byte[] readAt(long lsn) {
+      int blocksize = fm.blockSize();
+      int blknum = (int) ((lsn - 1) / blocksize);
+      int recpos = (int) (blocksize - (lsn - (long) blknum * blocksize));
+      if (blknum == currentblk.number())
+         return logpage.getBytes(recpos);
+      if (blknum != readblknum) {
+         fm.read(new BlockId(logfile, blknum), readpage);
+         readblknum = blknum;
+      }
+      return readpage.getBytes(recpos);
+   }
+
+   /**
+    * Returns the LSN of the most recently appended log record.
+    * @return the latest LSN
+    */
+   public synchronized long latestLSN() {
+      return latestLSN;
+   }
+
+   /**
+    * Returns the size of the largest log record
+    * that fits in a log block.
+    * @return the maximum record size
+    */
+   public int maxRecordSize() {
+      return fm.blockSize() - 2*Integer.BYTES;
+   }
+
+   public LogIterator iterator() {
       flush();
       return new LogIterator(fm, currentblk);
    }
@@ -65,9 +109,9 @@ public class LogMgr {
     * Storing the records backwards makes it easy to read
     * them in reverse order.
     * @param logrec a byte buffer containing the bytes.
-    * @return the LSN of the final value
+    * @return the LSN of the record
     */
-   public synchronized int append(byte[] logrec) {
+   public synchronized long append(byte[] logrec) {
       int boundary = logpage.getInt(0);
       int recsize = logrec.length;
       int bytesneeded = recsize + Integer.BYTES;
@@ -80,10 +124,28 @@ public class LogMgr {
 
       logpage.setBytes(recpos, logrec);
       logpage.setInt(0, recpos); // the new boundary
-      latestLSN += 1;
+      latestLSN = lsn(currentblk.number(), recpos, fm.blockSize());
       return latestLSN;
    }
 
+   /**
+    * Return the LSN of the log record at the specified
+    * position of the specified log block.
+    * The LSN is the record's distance from the start of the log,
+    * counting each block from its end (where its first record goes),
+    * so LSNs keep increasing from one record to the next,
+    * even across restarts, and pages can be compared
+    * against log records by LSN.
+    * LSNs are longs, since the log can outgrow an int.
+    * @param blknum the number of the log block
+    * @param recpos the position of the record in the block
+    * @param blocksize the size of a log block
+    * @return the LSN of the record
+    */
+   static long lsn(int blknum, int recpos, int blocksize) {
+      return (long) blknum * blocksize + (blocksize - recpos);
+   }
+
    /**
     * Initialize the bytebuffer and append it to the log file.
     */
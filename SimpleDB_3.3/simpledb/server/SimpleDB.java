@@ -5,6 +5,7 @@ import simpledb.file.FileMgr;
 import simpledb.log.LogMgr;
 import simpledb.buffer.BufferMgr;
 import simpledb.tx.Transaction;
+import simpledb.tx.recovery.Checkpointer;
 import simpledb.metadata.MetadataMgr;
 import simpledb.plan.*;
 import simpledb.index.planner.IndexUpdatePlanner;
@@ -19,6 +20,13 @@ public class SimpleDB {
    public static int BLOCK_SIZE = 400;
    public static int BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   // Write a fuzzy checkpoint after this many milliseconds
+   // or log bytes, whichever comes first (0 turns either off)
+   public static long CHECKPOINT_INTERVAL = 60000;
+   public static int CHECKPOINT_LOG_BYTES = 1024 * 1024;
+   // The number of threads that redo changes during recovery;
+   // each thread redoes all the changes to one block at a time
+   public static int RECOVERY_THREADS = 4;
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
@@ -52,7 +60,7 @@ public class SimpleDB {
          System.out.println("creating new database");
       else {
          System.out.println("recovering existing database");
-         tx.recover();
+         tx.recover(RECOVERY_THREADS);
       }
       mdm = new MetadataMgr(isnew, tx);
       QueryPlanner qp = new BasicQueryPlanner(mdm);
@@ -61,6 +69,7 @@ public class SimpleDB {
 //    UpdatePlanner up = new IndexUpdatePlanner(mdm);
       planner = new Planner(qp, up);
       tx.commit();
+      startCheckpointer();
    }
    
    /**
@@ -79,6 +88,19 @@ public class SimpleDB {
       return planner;
    }
 
+   /**
+    * Start the background thread that writes fuzzy checkpoints,
+    * unless both checkpoint limits are turned off.
+    */
+   private void startCheckpointer() {
+      if (CHECKPOINT_INTERVAL <= 0 && CHECKPOINT_LOG_BYTES <= 0)
+         return;
+      Checkpointer checkpointer = new Checkpointer(lm, bm, CHECKPOINT_INTERVAL, CHECKPOINT_LOG_BYTES);
+      Thread t = new Thread(checkpointer, "checkpointer");
+      t.setDaemon(true);
+      t.start();
+   }
+
    // These methods aid in debugging
    public FileMgr fileMgr() {
       return fm;
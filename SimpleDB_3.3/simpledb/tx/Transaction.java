@@ -45,8 +45,7 @@ public class Transaction {
    
    /**
     * Commit the current transaction.
-    * Flush all modified buffers (and their log records),
-    * write and flush a commit record to the log,
+    * Write and flush a commit record to the log,
     * release all locks, and unpin any pinned buffers.
     */
    public void commit() {
@@ -59,7 +58,6 @@ public class Transaction {
    /**
     * Rollback the current transaction.
     * Undo any modified values,
-    * flush those buffers,
     * write and flush a rollback record to the log,
     * release all locks, and unpin any pinned buffers.
     */
@@ -72,15 +70,27 @@ public class Transaction {
    
    /**
     * Flush all modified buffers.
-    * Then go through the log, rolling back all
+    * Then go through the log, redoing the changes
+    * that did not make it to disk and rolling back all
     * uncommitted transactions.  Finally, 
     * write a quiescent checkpoint record to the log.
     * This method is called during system startup,
     * before user transactions begin.
+    * @return the number of log records recovery read
     */
-   public void recover() {
+   public int recover() {
+      return recover(1);
+   }
+
+   /**
+    * Recover the database as above, redoing the changes
+    * with the specified number of threads.
+    * @param numthreads the number of redo threads
+    * @return the number of log records recovery read
+    */
+   public int recover(int numthreads) {
       bm.flushAll(txnum);
-      recoveryMgr.recover();
+      return recoveryMgr.recover(numthreads);
    }
    
    /**
@@ -148,7 +158,7 @@ public class Transaction {
    public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
+      long lsn = -1;
       if (okToLog)
          lsn = recoveryMgr.setInt(buff, offset, val);
       Page p = buff.contents();
@@ -172,7 +182,7 @@ public class Transaction {
    public void setString(BlockId blk, int offset, String val, boolean okToLog) {
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
+      long lsn = -1;
       if (okToLog)
          lsn = recoveryMgr.setString(buff, offset, val);
       Page p = buff.contents();
@@ -208,8 +218,14 @@ public class Transaction {
       return fm.append(filename);
    }
    
+   /**
+    * Return the number of bytes in a block that are
+    * available to hold values.
+    * The rest of the block holds its page LSN.
+    * @return the usable size of a block
+    */
    public int blockSize() {
-      return fm.blockSize();
+      return fm.blockSize() - Buffer.PAGE_LSN_SIZE;
    }
    
    public int availableBuffs() {
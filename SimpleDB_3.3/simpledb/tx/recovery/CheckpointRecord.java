@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
@@ -24,12 +24,34 @@ public class CheckpointRecord implements LogRecord {
       return -1; // dummy value
    }
 
+   /**
+    * Checkpoint records are not part of a transaction's
+    * chain of log records, so there is no previous LSN.
+    */
+   public long prevLSN() {
+      return -1;
+   }
+
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Returns null, because a checkpoint record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
+
    public String toString() {
       return "<CHECKPOINT>";
    }
@@ -40,7 +62,7 @@ public class CheckpointRecord implements LogRecord {
     * and nothing else.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm) {
+   public static long writeToLog(LogMgr lm) {
       byte[] rec = new byte[Integer.BYTES];
       Page p = new Page(rec);
       p.setInt(0, CHECKPOINT);
@@ -0,0 +1,67 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Runs the same committed updates in two databases,
+ * the second one with a checkpoint halfway and at the end,
+ * and then recovers both as if the server had crashed.
+ * The updated page is never replaced in the buffer pool,
+ * so recovery of the first database reads the whole log,
+ * while the second only reads back to the last checkpoint,
+ * since the checkpointer flushed the page before writing it.
+ */
+public class CheckpointTest {
+   private static final int NUM_UPDATES = 200;
+   private static BlockId blk;
+
+   public static void main(String[] args) throws Exception {
+      blk = new BlockId("testfile", 0);
+      int withoutCheckpoints = run("checkpointtest1", false);
+      int withCheckpoints = run("checkpointtest2", true);
+      System.out.println("records read by recovery without checkpoints: " + withoutCheckpoints);
+      System.out.println("records read by recovery with checkpoints: " + withCheckpoints);
+      if (withCheckpoints >= withoutCheckpoints)
+         System.out.println("FAILED: the checkpoints did not shorten recovery");
+   }
+
+   private static int run(String dirname, boolean checkpoints) {
+      clear(dirname);
+      SimpleDB db = new SimpleDB(dirname, 400, 8);
+      Checkpointer checkpointer = new Checkpointer(db.logMgr(), db.bufferMgr(), 0, 0);
+      for (int i=0; i<NUM_UPDATES; i++) {
+         update(db, i);
+         if (checkpoints && i == NUM_UPDATES/2)
+            checkpointer.checkpoint();
+      }
+      if (checkpoints)
+         checkpointer.checkpoint();
+
+      // the buffers are not flushed, as if the server had crashed
+      SimpleDB restarted = new SimpleDB(dirname, 400, 8);
+      Transaction tx = restarted.newTx();
+      int numrecs = tx.recover();
+      tx.pin(blk);
+      if (tx.getInt(blk, 0) != NUM_UPDATES - 1)
+         System.out.println("FAILED: " + dirname + " did not recover the last update");
+      tx.commit();
+      return numrecs;
+   }
+
+   private static void update(SimpleDB db, int i) {
+      Transaction tx = db.newTx();
+      tx.pin(blk);
+      tx.setInt(blk, 0, i, true);
+      tx.commit();
+   }
+
+   private static void clear(String dirname) {
+      File dir = new File(dirname);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+   }
+}
@@ -0,0 +1,117 @@
+package simpledb.tx.recovery;
+
+import java.util.*;
+import simpledb.file.BlockId;
+import simpledb.log.LogMgr;
+import simpledb.buffer.BufferMgr;
+
+/**
+ * The background checkpointer.
+ * It periodically writes a fuzzy checkpoint record,
+ * without waiting for running transactions to finish,
+ * so that recovery only has to read the log back to
+ * the latest checkpoint (and the oldest change it still needs)
+ * no matter how long the server has been up.
+ * Before each checkpoint it flushes the pages that have been
+ * dirty since before the previous one, as ARIES does,
+ * so the oldest change recovery needs keeps moving forward
+ * even for pages that are never replaced.
+ * A checkpoint is written when the specified time has passed
+ * or the specified number of log bytes has been written
+ * since the previous one, whichever comes first.
+ */
+public class Checkpointer implements Runnable {
+   private static final long TICK = 100; // milliseconds
+   private LogMgr lm;
+   private BufferMgr bm;
+   private long interval;
+   private int logbytes;
+   private long lastTime;
+   private long lastLSN;
+
+   /**
+    * Create a checkpointer for the specified log and buffer managers.
+    * @param interval the milliseconds between checkpoints, or 0 for no limit
+    * @param logbytes the log bytes between checkpoints, or 0 for no limit
+    */
+   public Checkpointer(LogMgr lm, BufferMgr bm, long interval, int logbytes) {
+      this.lm = lm;
+      this.bm = bm;
+      this.interval = interval;
+      this.logbytes = logbytes;
+      lastTime = System.currentTimeMillis();
+      lastLSN = lm.latestLSN();
+   }
+
+   /**
+    * Check for a due checkpoint every tick,
+    * until the thread is interrupted.
+    */
+   public void run() {
+      try {
+         while (true) {
+            Thread.sleep(TICK);
+            if (checkpointIsDue())
+               checkpoint();
+         }
+      }
+      catch(InterruptedException e) {
+      }
+   }
+
+   /**
+    * Write a fuzzy checkpoint record to the log and flush it.
+    * The buffers whose recovery LSN is older than the start
+    * of the previous checkpoint are flushed first.
+    * The start of the checkpoint is noted before the tables are read,
+    * so recovery considers every change logged while they were being read.
+    * If the tables do not fit in a log block, they are split
+    * over several records.
+    * @return the LSN of the last checkpoint record
+    */
+   public long checkpoint() {
+      bm.flushOlderThan(lastLSN);
+      long beginlsn = lm.latestLSN();
+      Map<Integer,Long> activetxs = RecoveryMgr.activeTxs();
+      Map<BlockId,Long> dirtypages = bm.dirtyPages();
+      lastTime = System.currentTimeMillis();
+      lastLSN = beginlsn;
+      Map<Integer,Long> txs = new LinkedHashMap<>();
+      Map<BlockId,Long> pages = new LinkedHashMap<>();
+      for (Map.Entry<Integer,Long> e : activetxs.entrySet()) {
+         txs.put(e.getKey(), e.getValue());
+         if (FuzzyCheckpointRecord.size(txs, pages) > lm.maxRecordSize()) {
+            txs.remove(e.getKey());
+            writeChunk(beginlsn, txs, pages);
+            txs.put(e.getKey(), e.getValue());
+         }
+      }
+      for (Map.Entry<BlockId,Long> e : dirtypages.entrySet()) {
+         pages.put(e.getKey(), e.getValue());
+         if (FuzzyCheckpointRecord.size(txs, pages) > lm.maxRecordSize()) {
+            pages.remove(e.getKey());
+            writeChunk(beginlsn, txs, pages);
+            pages.put(e.getKey(), e.getValue());
+         }
+      }
+      long lsn = FuzzyCheckpointRecord.writeToLog(lm, beginlsn, true, txs, pages);
+      lm.flush(lsn);
+      return lsn;
+   }
+
+   /**
+    * Write a record holding part of the checkpoint's tables,
+    * which is not its last record, and empty the tables.
+    */
+   private void writeChunk(long beginlsn, Map<Integer,Long> txs, Map<BlockId,Long> pages) {
+      FuzzyCheckpointRecord.writeToLog(lm, beginlsn, false, txs, pages);
+      txs.clear();
+      pages.clear();
+   }
+
+   private boolean checkpointIsDue() {
+      if (interval > 0 && System.currentTimeMillis() - lastTime >= interval)
+         return true;
+      return logbytes > 0 && lm.latestLSN() - lastLSN >= logbytes;
+   }
+}
@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
@@ -10,10 +10,13 @@ import simpledb.tx.Transaction;
  */
 public class CommitRecord implements LogRecord {
    private int txnum;
+   private long prevlsn;
 
    public CommitRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevlsn = p.getLong(ppos);
    }
 
    public int op() {
@@ -24,12 +27,30 @@ public class CommitRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevlsn;
+   }
+
    /**
     * Does nothing, because a commit record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Returns null, because a commit record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a commit record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
+
    public String toString() {
       return "<COMMIT " + txnum + ">";
    }
@@ -37,14 +58,16 @@ public class CommitRecord implements LogRecord {
    /** 
     * A static method to write a commit record to the log.
     * This log record contains the COMMIT operator,
-    * followed by the transaction id.
+    * followed by the transaction id and the LSN
+    * of the transaction's previous log record.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
+   public static long writeToLog(LogMgr lm, int txnum, long prevlsn) {
+      byte[] rec = new byte[2*Integer.BYTES + Long.BYTES];
       Page p = new Page(rec);
       p.setInt(0, COMMIT);
       p.setInt(Integer.BYTES, txnum);
+      p.setLong(2*Integer.BYTES, prevlsn);
       return lm.append(rec);
    }
 }
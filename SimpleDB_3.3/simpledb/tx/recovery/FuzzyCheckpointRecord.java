@@ -0,0 +1,185 @@
+package simpledb.tx.recovery;
+
+import java.util.*;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The FUZZYCHECKPOINT log record.
+ * Unlike the quiescent CHECKPOINT record, it is written
+ * while transactions are running, so it carries what
+ * recovery needs to know about them: the LSN of the log
+ * when the checkpoint began, the active transactions
+ * (with the LSNs of their START records), and the dirty pages
+ * (with their recovery LSNs).
+ * When the tables do not fit in one log block, the checkpoint
+ * is split into several records with the same begin LSN,
+ * and only the one written last is marked as the last record.
+ */
+public class FuzzyCheckpointRecord implements LogRecord {
+   private long beginlsn;
+   private boolean last;
+   private Map<Integer,Long> activetxs = new LinkedHashMap<>();
+   private Map<BlockId,Long> dirtypages = new LinkedHashMap<>();
+
+   public FuzzyCheckpointRecord(Page p) {
+      int pos = Integer.BYTES;
+      beginlsn = p.getLong(pos);
+      pos += Long.BYTES;
+      last = p.getInt(pos) != 0;
+      pos += Integer.BYTES;
+      int numtxs = p.getInt(pos);
+      pos += Integer.BYTES;
+      for (int i=0; i<numtxs; i++) {
+         int txnum = p.getInt(pos);
+         long startlsn = p.getLong(pos + Integer.BYTES);
+         activetxs.put(txnum, startlsn);
+         pos += Integer.BYTES + Long.BYTES;
+      }
+      int numpages = p.getInt(pos);
+      pos += Integer.BYTES;
+      for (int i=0; i<numpages; i++) {
+         String filename = p.getString(pos);
+         pos += Page.maxLength(filename.length());
+         int blknum = p.getInt(pos);
+         long reclsn = p.getLong(pos + Integer.BYTES);
+         dirtypages.put(new BlockId(filename, blknum), reclsn);
+         pos += Integer.BYTES + Long.BYTES;
+      }
+   }
+
+   public int op() {
+      return FUZZYCHECKPOINT;
+   }
+
+   /**
+    * Checkpoint records have no associated transaction,
+    * and so the method returns a "dummy", negative txid.
+    */
+   public int txNumber() {
+      return -1; // dummy value
+   }
+
+   /**
+    * Checkpoint records are not part of a transaction's
+    * chain of log records, so there is no previous LSN.
+    */
+   public long prevLSN() {
+      return -1;
+   }
+
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no undo information.
+    */
+   public void undo(Transaction tx) {}
+
+   /**
+    * Returns null, because a checkpoint record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
+
+   /**
+    * Return the LSN of the log when the checkpoint began,
+    * which is the same in all the records of a checkpoint.
+    * @return the begin LSN of the checkpoint
+    */
+   public long beginLSN() {
+      return beginlsn;
+   }
+
+   /**
+    * Return true if this is the last record of its checkpoint.
+    * A checkpoint whose last record is not in the log
+    * was cut short by a crash, and recovery ignores it.
+    * @return true if the record is the last one of its checkpoint
+    */
+   public boolean isLast() {
+      return last;
+   }
+
+   /**
+    * Return the LSN from which recovery has to read the log.
+    * Every change that may not be on disk comes after
+    * the recovery LSN of its page or after the start of the checkpoint,
+    * and every change that may have to be undone comes after
+    * the START record of an active transaction.
+    * Only the tables in this record are considered,
+    * so recovery takes the earliest LSN over all the records
+    * of the checkpoint.
+    * @return the earliest LSN recovery needs
+    */
+   public long recoveryStartLSN() {
+      long lsn = beginlsn;
+      for (long startlsn : activetxs.values())
+         lsn = Math.min(lsn, startlsn);
+      for (long reclsn : dirtypages.values())
+         lsn = Math.min(lsn, reclsn);
+      return lsn;
+   }
+
+   public String toString() {
+      return "<FUZZYCHECKPOINT " + beginlsn + (last ? "" : " ...") + " " + activetxs + " " + dirtypages + ">";
+   }
+
+   /**
+    * Return the size of the record for the specified tables.
+    * @return the number of bytes in the record
+    */
+   public static int size(Map<Integer,Long> activetxs, Map<BlockId,Long> dirtypages) {
+      int size = 4*Integer.BYTES + Long.BYTES + activetxs.size() * (Integer.BYTES + Long.BYTES);
+      for (BlockId blk : dirtypages.keySet())
+         size += Page.maxLength(blk.fileName().length()) + Integer.BYTES + Long.BYTES;
+      return size;
+   }
+
+   /**
+    * A static method to write a fuzzy checkpoint record to the log.
+    * This log record contains the FUZZYCHECKPOINT operator,
+    * followed by the LSN when the checkpoint began,
+    * whether it is the last record of the checkpoint,
+    * the number of active transactions and the id and START LSN of each,
+    * and the number of dirty pages and the filename, block number
+    * and recovery LSN of each.
+    * @return the LSN of the record
+    */
+   public static long writeToLog(LogMgr lm, long beginlsn, boolean last,
+                                 Map<Integer,Long> activetxs, Map<BlockId,Long> dirtypages) {
+      byte[] rec = new byte[size(activetxs, dirtypages)];
+      Page p = new Page(rec);
+      p.setInt(0, FUZZYCHECKPOINT);
+      int pos = Integer.BYTES;
+      p.setLong(pos, beginlsn);
+      pos += Long.BYTES;
+      p.setInt(pos, last ? 1 : 0);
+      pos += Integer.BYTES;
+      p.setInt(pos, activetxs.size());
+      pos += Integer.BYTES;
+      for (Map.Entry<Integer,Long> e : activetxs.entrySet()) {
+         p.setInt(pos, e.getKey());
+         p.setLong(pos + Integer.BYTES, e.getValue());
+         pos += Integer.BYTES + Long.BYTES;
+      }
+      p.setInt(pos, dirtypages.size());
+      pos += Integer.BYTES;
+      for (Map.Entry<BlockId,Long> e : dirtypages.entrySet()) {
+         BlockId blk = e.getKey();
+         p.setString(pos, blk.fileName());
+         pos += Page.maxLength(blk.fileName().length());
+         p.setInt(pos, blk.number());
+         p.setLong(pos + Integer.BYTES, e.getValue());
+         pos += Integer.BYTES + Long.BYTES;
+      }
+      return lm.append(rec);
+   }
+}
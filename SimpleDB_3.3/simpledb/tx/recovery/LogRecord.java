@@ -1,5 +1,6 @@
 package simpledb.tx.recovery;
 
+import simpledb.file.BlockId;
 import simpledb.file.Page;
 import simpledb.tx.Transaction;
 
@@ -10,7 +11,8 @@ import simpledb.tx.Transaction;
 public interface LogRecord {
    static final int CHECKPOINT = 0, START = 1,
          COMMIT = 2, ROLLBACK  = 3,
-         SETINT = 4, SETSTRING = 5;
+         SETINT = 4, SETSTRING = 5,
+         FUZZYCHECKPOINT = 6;
 
    /**
     * Returns the log record's type. 
@@ -25,6 +27,16 @@ public interface LogRecord {
     */
    int txNumber();
 
+   /**
+    * Returns the LSN of the previous log record
+    * of the same transaction, or -1 if this is
+    * the transaction's first record.
+    * Following these LSNs visits the transaction's
+    * records from newest to oldest.
+    * @return the LSN of the transaction's previous record
+    */
+   long prevLSN();
+
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
@@ -33,6 +45,24 @@ public interface LogRecord {
     */
    void undo(Transaction tx);
 
+   /**
+    * Returns the block modified by the log record,
+    * or null if the record does not modify a block.
+    * @return the modified block
+    */
+   BlockId block();
+
+   /**
+    * Redoes the operation encoded by this log record
+    * on the contents of its block.
+    * The caller pins the block, and only calls this method
+    * if the page LSN is older than the record.
+    * The only log record types for which this method
+    * does anything interesting are SETINT and SETSTRING.
+    * @param p the contents of the modified block
+    */
+   void redo(Page p);
+
    /**
     * Interpret the bytes returned by the log iterator.
     * @param bytes
@@ -53,6 +83,8 @@ public interface LogRecord {
          return new SetIntRecord(p);
       case SETSTRING: 
          return new SetStringRecord(p);
+      case FUZZYCHECKPOINT: 
+         return new FuzzyCheckpointRecord(p);
       default:
          return null;
       }
@@ -1,6 +1,7 @@
 package simpledb.tx.recovery;
 
 import java.util.*;
+import java.util.concurrent.*;
 import simpledb.file.*;
 import simpledb.log.*;
 import simpledb.buffer.*;
@@ -12,10 +13,18 @@ import static simpledb.tx.recovery.LogRecord.*;
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   /**
+    * The active transaction table, mapping the id of each
+    * running transaction to the LSN of its START record.
+    * This variable is static because all transactions
+    * share the same table.
+    */
+   private static Map<Integer,Long> activeTxs = new HashMap<>();
    private LogMgr lm;
    private BufferMgr bm;
    private Transaction tx;
    private int txnum;
+   private long lastlsn;
 
    /**
     * Create a recovery manager for the specified transaction.
@@ -26,37 +35,62 @@ public class RecoveryMgr {
       this.txnum = txnum;
       this.lm = lm;
       this.bm = bm;
-      StartRecord.writeToLog(lm, txnum);
+      lastlsn = StartRecord.writeToLog(lm, txnum);
+      addActiveTx(txnum, lastlsn);
+   }
+
+   /**
+    * Return a copy of the active transaction table,
+    * for writing a fuzzy checkpoint.
+    * @return the START LSN of each active transaction
+    */
+   public static synchronized Map<Integer,Long> activeTxs() {
+      return new HashMap<>(activeTxs);
    }
 
    /**
     * Write a commit record to the log, and flushes it to disk.
+    * The modified buffers are not flushed (no-force):
+    * the log has enough information to redo their changes,
+    * so they get written whenever the buffer manager replaces them.
     */
    public void commit() {
-      bm.flushAll(txnum);
-      int lsn = CommitRecord.writeToLog(lm, txnum);
+      long lsn = CommitRecord.writeToLog(lm, txnum, lastlsn);
       lm.flush(lsn);
+      removeActiveTx(txnum);
    }
 
    /**
     * Write a rollback record to the log and flush it to disk.
+    * As with commit, the modified buffers are not flushed.
     */
    public void rollback() {
       doRollback();
-      bm.flushAll(txnum);
-      int lsn = RollbackRecord.writeToLog(lm, txnum);
+      long lsn = RollbackRecord.writeToLog(lm, txnum, lastlsn);
       lm.flush(lsn);
+      removeActiveTx(txnum);
    }
 
    /**
-    * Recover uncompleted transactions from the log
+    * Redo the changes that did not make it to disk,
+    * recover uncompleted transactions from the log,
     * and then write a quiescent checkpoint record to the log and flush it.
+    * The changes made during recovery all belong to this transaction,
+    * so flushing its buffers writes every recovered page.
+    * Prints how many log records recovery read, and how fast.
+    * @param numthreads the number of threads that redo changes
+    * @return the number of log records recovery read
     */
-   public void recover() {
-      doRecover();
+   public int recover(int numthreads) {
+      long starttime = System.currentTimeMillis();
+      int numrecs = doRecover(numthreads);
       bm.flushAll(txnum);
-      int lsn = CheckpointRecord.writeToLog(lm);
+      long lsn = CheckpointRecord.writeToLog(lm);
       lm.flush(lsn);
+      long millis = Math.max(System.currentTimeMillis() - starttime, 1);
+      System.out.println("recovered " + numrecs + " log records in " + millis + " ms ("
+            + (numrecs * 1000L / millis) + " records/sec)");
+      return numrecs;
    }
 
    /**
@@ -65,10 +99,12 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
-      return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      buff.setRecoveryLSN(lm.latestLSN());
+      lastlsn = SetIntRecord.writeToLog(lm, txnum, lastlsn, blk, offset, oldval, newval);
+      return lastlsn;
    }
 
    /**
@@ -77,52 +113,169 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.contents().getString(offset);
       BlockId blk = buff.block();
-      return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      buff.setRecoveryLSN(lm.latestLSN());
+      lastlsn = SetStringRecord.writeToLog(lm, txnum, lastlsn, blk, offset, oldval, newval);
+      return lastlsn;
+   }
+
+   private static synchronized void addActiveTx(int txnum, long startlsn) {
+      activeTxs.put(txnum, startlsn);
+   }
+
+   private static synchronized void removeActiveTx(int txnum) {
+      activeTxs.remove(txnum);
    }
 
    /**
-    * Rollback the transaction, by iterating
-    * through the log records until it finds 
-    * the transaction's START record,
-    * calling undo() for each of the transaction's
-    * log records.
+    * Rollback the transaction, by following
+    * the chain of its log records from the newest
+    * back to its START record, reading each one
+    * directly by its LSN and calling undo() on it.
+    * The records of other transactions are never read.
+    * The undos are logged and so join the chain,
+    * but the walk starts from the record that was
+    * newest when the rollback began, so it never sees them.
     */
    private void doRollback() {
-      Iterator<byte[]> iter = lm.iterator();
-      while (iter.hasNext()) {
-         byte[] bytes = iter.next();
+      long lsn = lastlsn;
+      while (lsn >= 0) {
+         byte[] bytes = lm.readAt(lsn);
          LogRecord rec = LogRecord.createLogRecord(bytes); 
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(tx);
-         }
+         if (rec.op() == START)
+            return;
+         rec.undo(tx);
+         lsn = rec.prevLSN();
       }
    }
 
    /**
-    * Do a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
+    * Do a complete database recovery, in three passes.
+    * The analysis pass iterates backwards through the log records
+    * until it encounters a CHECKPOINT record or the end of the log,
+    * keeping the records and noting which transactions finished.
+    * If it encounters the last record of a fuzzy checkpoint first,
+    * it only continues back to the earliest LSN that checkpoint needs
+    * (the earliest START of its active transactions
+    * and recovery LSN of its dirty pages, over all its records).
+    * The redo pass then repeats every change (of finished
+    * and unfinished transactions alike) that did not make it
+    * to disk, with the specified number of threads.
+    * Finally the undo pass goes backward again, and
+    * whenever it finds a log record for an unfinished
     * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * @param numthreads the number of threads that redo changes
+    * @return the number of log records read
     */
-   private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<>();
-      Iterator<byte[]> iter = lm.iterator();
+   private int doRecover(int numthreads) {
+      Collection<Integer> finishedTxs = new HashSet<>();
+      List<LogRecord> recs = new ArrayList<>();
+      List<Long> lsns = new ArrayList<>();
+      long startlsn = -1;
+      long checkpointlsn = -1;
+      LogIterator iter = lm.iterator();
       while (iter.hasNext()) {
          byte[] bytes = iter.next();
+         if (iter.lsn() <= startlsn)
+            break;
          LogRecord rec = LogRecord.createLogRecord(bytes);
          if (rec.op() == CHECKPOINT)
-            return;
+            break;
+         if (rec.op() == FUZZYCHECKPOINT) {
+            FuzzyCheckpointRecord cp = (FuzzyCheckpointRecord) rec;
+            if (startlsn < 0 && cp.isLast()) {
+               checkpointlsn = cp.beginLSN();
+               startlsn = cp.recoveryStartLSN();
+            }
+            else if (startlsn >= 0 && cp.beginLSN() == checkpointlsn)
+               startlsn = Math.min(startlsn, cp.recoveryStartLSN());
+         }
          if (rec.op() == COMMIT || rec.op() == ROLLBACK)
             finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
+         recs.add(rec);
+         lsns.add(iter.lsn());
+      }
+
+      redoAll(recs, lsns, numthreads);
+
+      for (LogRecord rec : recs)
+         if (!finishedTxs.contains(rec.txNumber()))
             rec.undo(tx);
+      return recs.size();
+   }
+
+   /**
+    * The redo pass.
+    * The records (which are newest first) are grouped by
+    * the block they change, in log order within each block.
+    * Each block's records are then redone as one batch,
+    * by one of the threads. The changes to different blocks
+    * do not depend on each other, so the batches can be
+    * redone in any order, and at the same time.
+    * @param recs the log records, newest first
+    * @param lsns the LSN of each record
+    * @param numthreads the number of threads
+    */
+   private void redoAll(List<LogRecord> recs, List<Long> lsns, int numthreads) {
+      Map<BlockId,List<Integer>> batches = new LinkedHashMap<>();
+      for (int i=recs.size()-1; i>=0; i--) {
+         BlockId blk = recs.get(i).block();
+         if (blk != null)
+            batches.computeIfAbsent(blk, b -> new ArrayList<>()).add(i);
+      }
+
+      if (numthreads <= 1) {
+         for (List<Integer> batch : batches.values())
+            redo(batch, recs, lsns);
+         return;
+      }
+      ExecutorService workers = Executors.newFixedThreadPool(numthreads);
+      try {
+         List<Future<?>> results = new ArrayList<>();
+         for (List<Integer> batch : batches.values())
+            results.add(workers.submit(() -> redo(batch, recs, lsns)));
+         for (Future<?> result : results)
+            result.get();
+      }
+      catch (InterruptedException e) {
+         throw new RuntimeException("interrupted during recovery");
+      }
+      catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+         throw new RuntimeException(e.getCause());
+      }
+      finally {
+         workers.shutdown();
+      }
+   }
+
+   /**
+    * Redo the changes of a batch of log records to the same block,
+    * in log order, skipping the ones the block already has
+    * (that is, the ones whose LSN is not newer than the page LSN).
+    * The block is pinned once for the whole batch.
+    * Redo works on the buffer directly, without locks
+    * and without logging the changes again.
+    * @param batch the indexes of the records, oldest first
+    * @param recs the log records
+    * @param lsns the LSN of each record
+    */
+   private void redo(List<Integer> batch, List<LogRecord> recs, List<Long> lsns) {
+      Buffer buff = bm.pin(recs.get(batch.get(0)).block());
+      long pagelsn = buff.pageLSN();
+      long redonelsn = -1;
+      for (int i : batch) {
+         long lsn = lsns.get(i);
+         if (lsn > pagelsn) {
+            recs.get(i).redo(buff.contents());
+            redonelsn = lsn;
+         }
       }
+      if (redonelsn >= 0)
+         buff.setModified(txnum, redonelsn);
+      bm.unpin(buff);
    }
 }
@@ -42,6 +42,9 @@ public class RecoveryTest {
       tx2.setString(blk1, 30, "def", false);
       tx1.commit();
       tx2.commit();
+      // commit doesn't flush the buffers, so flush them to see the values on disk
+      bm.flushAll(1);
+      bm.flushAll(2);
       printValues("After Initialization:");
    }
 
@@ -63,6 +66,7 @@ public class RecoveryTest {
       printValues("After modification:");
 
       tx3.rollback();
+      bm.flushAll(3);
       printValues("After rollback:");
       // tx4 stops here without committing or rolling back,
       // so all its changes should be undone during recovery.
@@ -70,7 +74,7 @@ public class RecoveryTest {
 
    private static void recover() {
       Transaction tx = db.newTx();
-      tx.recover();
+      tx.recover(SimpleDB.RECOVERY_THREADS);
       printValues("After recovery:");
    }
 
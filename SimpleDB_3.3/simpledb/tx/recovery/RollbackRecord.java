@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
@@ -10,6 +10,7 @@ import simpledb.tx.Transaction;
  */
 public class RollbackRecord implements LogRecord {
    private int txnum;
+   private long prevlsn;
 
    /**
     * Create a RollbackRecord object.
@@ -18,6 +19,8 @@ public class RollbackRecord implements LogRecord {
    public RollbackRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevlsn = p.getLong(ppos);
    }
 
    public int op() {
@@ -28,12 +31,30 @@ public class RollbackRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevlsn;
+   }
+
    /**
     * Does nothing, because a rollback record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Returns null, because a rollback record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a rollback record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
+
    public String toString() {
       return "<ROLLBACK " + txnum + ">";
    }
@@ -41,14 +62,16 @@ public class RollbackRecord implements LogRecord {
    /** 
     * A static method to write a rollback record to the log.
     * This log record contains the ROLLBACK operator,
-    * followed by the transaction id.
+    * followed by the transaction id and the LSN
+    * of the transaction's previous log record.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
+   public static long writeToLog(LogMgr lm, int txnum, long prevlsn) {
+      byte[] rec = new byte[2*Integer.BYTES + Long.BYTES];
       Page p = new Page(rec);
       p.setInt(0, ROLLBACK);
       p.setInt(Integer.BYTES, txnum);
+      p.setLong(2*Integer.BYTES, prevlsn);
       return lm.append(rec);
    }
 }
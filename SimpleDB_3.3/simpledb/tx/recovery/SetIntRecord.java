@@ -5,7 +5,8 @@ import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 public class SetIntRecord implements LogRecord {
-   private int txnum, offset, val;
+   private int txnum, offset, oldval, newval;
+   private long prevlsn;
    private BlockId blk;
 
    /**
@@ -15,7 +16,9 @@ public class SetIntRecord implements LogRecord {
    public SetIntRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      prevlsn = p.getLong(ppos);
+      int fpos = ppos + Long.BYTES;
       String filename = p.getString(fpos);
       int bpos = fpos + Page.maxLength(filename.length());
       int blknum = p.getInt(bpos);
@@ -23,7 +26,9 @@ public class SetIntRecord implements LogRecord {
       int opos = bpos + Integer.BYTES;
       offset = p.getInt(opos);
       int vpos = opos + Integer.BYTES;      
-      val = p.getInt(vpos);
+      oldval = p.getInt(vpos);
+      int npos = vpos + Integer.BYTES;
+      newval = p.getInt(npos);
    }
 
    public int op() {
@@ -34,8 +39,12 @@ public class SetIntRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevlsn;
+   }
+
    public String toString() {
-      return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETINT " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
@@ -43,36 +52,56 @@ public class SetIntRecord implements LogRecord {
     * The method pins a buffer to the specified block,
     * calls setInt to restore the saved value,
     * and unpins the buffer.
+    * The undo is logged like any other change,
+    * so that the redo pass of a later recovery repeats it.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
       tx.pin(blk);
-      tx.setInt(blk, offset, val, false); // don't log the undo!
+      tx.setInt(blk, offset, oldval, true);
       tx.unpin(blk);
    }
 
+   public BlockId block() {
+      return blk;
+   }
+
+   /**
+    * Replace the specified data value with the new value
+    * saved in the log record.
+    * @see simpledb.tx.recovery.LogRecord#redo(Page)
+    */
+   public void redo(Page p) {
+      p.setInt(offset, newval);
+   }
+
    /**
     * A static method to write a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename, number,
+    * and offset of the modified block, the previous
+    * value at that offset, and the new value.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, int val) {
+   public static long writeToLog(LogMgr lm, int txnum, long prevlsn, BlockId blk, int offset, int oldval, int newval) {
       int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int fpos = ppos + Long.BYTES;
       int bpos = fpos + Page.maxLength(blk.fileName().length());
       int opos = bpos + Integer.BYTES;
       int vpos = opos + Integer.BYTES;
-      byte[] rec = new byte[vpos + Integer.BYTES];
+      int npos = vpos + Integer.BYTES;
+      byte[] rec = new byte[npos + Integer.BYTES];
       Page p = new Page(rec);
       p.setInt(0, SETINT);
       p.setInt(tpos, txnum);
+      p.setLong(ppos, prevlsn);
       p.setString(fpos, blk.fileName());
       p.setInt(bpos, blk.number());
       p.setInt(opos, offset);
-      p.setInt(vpos, val);
+      p.setInt(vpos, oldval);
+      p.setInt(npos, newval);
       return lm.append(rec);
    }
 }
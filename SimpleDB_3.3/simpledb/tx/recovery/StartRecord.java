@@ -1,11 +1,12 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 public class StartRecord implements LogRecord {
    private int txnum;
+   private long prevlsn;
    
    /**
     * Create a log record by reading one other value from the log.
@@ -14,6 +15,8 @@ public class StartRecord implements LogRecord {
    public StartRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevlsn = p.getLong(ppos);
    }
    
    public int op() {
@@ -23,12 +26,30 @@ public class StartRecord implements LogRecord {
    public int txNumber() {
       return txnum;
    }
+
+   public long prevLSN() {
+      return prevlsn;
+   }
    
    /**
     * Does nothing, because a start record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
+
+   /**
+    * Returns null, because a start record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a start record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
    
    public String toString() {
       return "<START " + txnum + ">";
@@ -37,14 +58,17 @@ public class StartRecord implements LogRecord {
    /** 
     * A static method to write a start record to the log.
     * This log record contains the START operator,
-    * followed by the transaction id.
+    * followed by the transaction id, and -1 as the
+    * previous LSN, since it is the transaction's first record.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
+   public static long writeToLog(LogMgr lm, int txnum) {
+      long prevlsn = -1;
+      byte[] rec = new byte[2*Integer.BYTES + Long.BYTES];
       Page p = new Page(rec);
       p.setInt(0, START);
       p.setInt(Integer.BYTES, txnum);
+      p.setLong(2*Integer.BYTES, prevlsn);
       return lm.append(rec);
    }
 }